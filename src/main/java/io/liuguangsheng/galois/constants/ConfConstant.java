@@ -64,9 +64,65 @@ public class ConfConstant {
      * The constant RELOADER_MYBATIS_ENABLE.
      */
     public static final String RELOADER_MYBATIS_ENABLE = "reloader.mybatis.enable";
+    /**
+     * The constant RELOADER_MYBATIS_DIFF_ENABLE.
+     */
+    public static final String RELOADER_MYBATIS_DIFF_ENABLE = "reloader.mybatis.diff.enable";
     /**
      * The constant GALOIS_VERSION.
      */
     public static final String GALOIS_VERSION = "galois.version";
     public static final String GALOIS_GIT_URL = "galois.git.url";
+    /**
+     * The constant TRANSFORM_CACHE_ENABLE.
+     */
+    public static final String TRANSFORM_CACHE_ENABLE = "transform-cache.enable";
+    /**
+     * The constant TRANSFORM_CACHE_DIR.
+     */
+    public static final String TRANSFORM_CACHE_DIR = "transform-cache.dir";
+    /**
+     * The constant FILE_WATCH_SERVICE.
+     */
+    public static final String FILE_WATCH_SERVICE = "file-watch.service";
+    /**
+     * The constant FILE_WATCH_QUIET_PERIOD.
+     */
+    public static final String FILE_WATCH_QUIET_PERIOD = "file-watch.quiet-period";
+    /**
+     * The constant FILE_WATCH_MAX_QUIET_PERIOD.
+     */
+    public static final String FILE_WATCH_MAX_QUIET_PERIOD = "file-watch.max-quiet-period";
+    /**
+     * The constant FILE_WATCH_MAX_DELAY.
+     */
+    public static final String FILE_WATCH_MAX_DELAY = "file-watch.max-delay";
+    /**
+     * The constant FILE_WATCH_DISPATCH_THREADS.
+     */
+    public static final String FILE_WATCH_DISPATCH_THREADS = "file-watch.dispatch-threads";
+    /**
+     * The constant FILE_WATCH_DISPATCH_QUEUE_SIZE.
+     */
+    public static final String FILE_WATCH_DISPATCH_QUEUE_SIZE = "file-watch.dispatch-queue-size";
+    /**
+     * The constant CLASS_JOURNAL_SOURCE_TTL.
+     */
+    public static final String CLASS_JOURNAL_SOURCE_TTL = "class-journal.source-ttl";
+    /**
+     * The constant CLASS_JOURNAL_CLASS_TTL.
+     */
+    public static final String CLASS_JOURNAL_CLASS_TTL = "class-journal.class-ttl";
+    /**
+     * The constant CLASS_JOURNAL_MAX_ENTRIES.
+     */
+    public static final String CLASS_JOURNAL_MAX_ENTRIES = "class-journal.max-entries";
+    /**
+     * The constant COMPILER_ENABLE.
+     */
+    public static final String COMPILER_ENABLE = "compiler.enable";
+    /**
+     * The constant COMPILER_OPTIONS.
+     */
+    public static final String COMPILER_OPTIONS = "compiler.options";
 }
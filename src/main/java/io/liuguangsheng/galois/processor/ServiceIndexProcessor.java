@@ -0,0 +1,241 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) [2023] [liuguangsheng]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.liuguangsheng.galois.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * 编译期生成galois服务索引，运行时据此直接加载AgentService、MethodAdapter、LazyBean与Runner，而不必扫描整个classpath
+ * <p>
+ * 索引文件为{@link #INDEX_RESOURCE}，每行一个<code>类别=类的binary name</code>。
+ * IDE等只编译部分源文件时，本次未编译且仍然存在的类沿用输出目录中已有索引的记录，索引不会因此缩小
+ *
+ * @author liuguangsheng
+ * @since 2.0.1
+ */
+@SupportedAnnotationTypes("*")
+public class ServiceIndexProcessor extends AbstractProcessor {
+
+    /**
+     * The constant INDEX_RESOURCE.
+     */
+    public static final String INDEX_RESOURCE = "META-INF/galois/service.index";
+    /**
+     * AgentService的索引类别
+     */
+    public static final String CATEGORY_AGENT_SERVICE = "agent-service";
+    /**
+     * 带有AsmVisitor注解的MethodAdapter的索引类别
+     */
+    public static final String CATEGORY_ASM_VISITOR = "asm-visitor";
+    /**
+     * AbstractRunner的索引类别
+     */
+    public static final String CATEGORY_RUNNER = "runner";
+    /**
+     * 带有LazyBean注解的类的索引类别
+     */
+    public static final String CATEGORY_LAZY_BEAN = "lazy-bean";
+    private static final String SEPARATOR = "=";
+    private static final String AGENT_SERVICE = "io.liuguangsheng.galois.service.AgentService";
+    private static final String METHOD_ADAPTER = "io.liuguangsheng.galois.service.MethodAdapter";
+    private static final String ABSTRACT_RUNNER = "io.liuguangsheng.galois.service.spring.runners.AbstractRunner";
+    private static final String ASM_VISITOR = "io.liuguangsheng.galois.service.annotation.AsmVisitor";
+    private static final String LAZY_BEAN = "io.liuguangsheng.galois.service.annotation.LazyBean";
+
+    private final Map<String, Set<String>> index = new TreeMap<>();
+    private final Set<String> compiled = new HashSet<>();
+    private Map<String, Set<String>> previous;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        // 在写出新索引之前读取，Filer不允许同一次编译中先写后读同一个资源
+        previous = readIndex();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            writeIndex();
+            return false;
+        }
+
+        for (TypeElement type : ElementFilter.typesIn(roundEnv.getRootElements())) {
+            collect(type);
+        }
+
+        return false;
+    }
+
+    private void collect(TypeElement type) {
+        if (type.getKind() == ElementKind.CLASS && !type.getModifiers().contains(Modifier.ABSTRACT)) {
+            String name = binaryName(type);
+
+            if (isSubtypeOf(type, AGENT_SERVICE)) {
+                add(CATEGORY_AGENT_SERVICE, name);
+            }
+            if (isSubtypeOf(type, METHOD_ADAPTER) && hasAnnotation(type, ASM_VISITOR)) {
+                add(CATEGORY_ASM_VISITOR, name);
+            }
+            if (isSubtypeOf(type, ABSTRACT_RUNNER)) {
+                add(CATEGORY_RUNNER, name);
+            }
+            if (hasAnnotation(type, LAZY_BEAN)) {
+                add(CATEGORY_LAZY_BEAN, name);
+            }
+        }
+        compiled.add(binaryName(type));
+
+        for (TypeElement nested : ElementFilter.typesIn(type.getEnclosedElements())) {
+            collect(nested);
+        }
+    }
+
+    private String binaryName(TypeElement type) {
+        return processingEnv.getElementUtils().getBinaryName(type).toString();
+    }
+
+    private void add(String category, String className) {
+        index.computeIfAbsent(category, key -> new TreeSet<>()).add(className);
+    }
+
+    private boolean isSubtypeOf(TypeElement type, String superName) {
+        TypeMirror superclass = type.getSuperclass();
+
+        while (superclass.getKind() == TypeKind.DECLARED) {
+            TypeElement element = (TypeElement) ((DeclaredType) superclass).asElement();
+            if (element.getQualifiedName().contentEquals(superName)) {
+                return true;
+            }
+            superclass = element.getSuperclass();
+        }
+
+        return false;
+    }
+
+    private boolean hasAnnotation(TypeElement type, String annotationName) {
+        for (AnnotationMirror mirror : type.getAnnotationMirrors()) {
+            TypeElement element = (TypeElement) mirror.getAnnotationType().asElement();
+            if (element.getQualifiedName().contentEquals(annotationName)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * 本次编译的类以新的收集结果为准；其余类仍能解析时保留已有索引中的记录，已删除的类随之移出索引
+     */
+    private void mergePrevious() {
+        for (Map.Entry<String, Set<String>> entry : previous.entrySet()) {
+            for (String className : entry.getValue()) {
+                if (!compiled.contains(className) && exists(className)) {
+                    add(entry.getKey(), className);
+                }
+            }
+        }
+    }
+
+    private boolean exists(String binaryName) {
+        TypeElement type = processingEnv.getElementUtils().getTypeElement(binaryName.replace('$', '.'));
+        return type != null && binaryName(type).equals(binaryName);
+    }
+
+    private Map<String, Set<String>> readIndex() {
+        Map<String, Set<String>> result = new TreeMap<>();
+
+        try {
+            FileObject resource = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "",
+                    INDEX_RESOURCE);
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(resource.openInputStream(),
+                    StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int index = line.indexOf(SEPARATOR);
+                    if (index > 0) {
+                        result.computeIfAbsent(line.substring(0, index), key -> new TreeSet<>())
+                                .add(line.substring(index + 1).trim());
+                    }
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // 首次编译或输出目录已清理，没有可合并的索引
+            result.clear();
+        }
+
+        return result;
+    }
+
+    private void writeIndex() {
+        mergePrevious();
+        if (index.isEmpty()) {
+            return;
+        }
+
+        try {
+            FileObject resource = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+                    INDEX_RESOURCE);
+            try (Writer writer = new OutputStreamWriter(resource.openOutputStream(), StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, Set<String>> entry : index.entrySet()) {
+                    for (String className : entry.getValue()) {
+                        writer.write(entry.getKey() + SEPARATOR + className + "\n");
+                    }
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Write galois service index fail: " + e);
+        }
+    }
+}
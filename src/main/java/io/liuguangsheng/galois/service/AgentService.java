@@ -27,6 +27,7 @@ package io.liuguangsheng.galois.service;
 import io.liuguangsheng.galois.service.monitor.FileChangedListener;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * abstract agent service
@@ -53,9 +54,18 @@ public abstract class AgentService {
      */
     protected Set<String> necessaryClasses = new HashSet<>(8);
     /**
-     * 是否启用该AgentService，当该变量值与necessaryClasses的大小一致时，表示该AgentService启用
+     * 必备类名称到其在loadedMask中的位序号
      */
-    private int enabled;
+    private final Map<String, Integer> necessaryClassBits = new HashMap<>(8);
+    /**
+     * 已加载的必备类位图，第n位为1表示necessaryClassBits中位序号为n的类已经被加载。同名类被不同的类加载器重复加载时，
+     * 只会置位一次
+     */
+    private final AtomicLong loadedMask = new AtomicLong();
+    /**
+     * 所有必备类都已加载时loadedMask的值
+     */
+    private volatile long readyMask;
 
     /**
      * 当前AgentService是否可启用
@@ -63,23 +73,29 @@ public abstract class AgentService {
      * @return 当项目已经加载了必须的类之后 ，该AgentService将成为可用状态
      */
     public boolean isSuitable() {
-        return enabled == necessaryClasses.size();
+        return loadedMask.get() == readyMask;
     }
 
     /**
-     * 检测到当前已经加载了名为loadedClassName的类时，则更新该AgentService的enabled值，使其++，当enabled值等于
-     * necessaryClasses的大小时，表示该agentService正式启用
+     * 检测到当前已经加载了名为loadedClassName的类时，则将该类在loadedMask中对应的位置为1，当所有必备类对应的位都为1时，
+     * 表示该agentService正式启用。该方法运行在触发类加载的线程上，因此不能加锁
      *
      * @param loadedClassName loaded class name
      * @return 项目是否加载了对应的类名的类 boolean
      */
     public boolean isNecessaryClass(String loadedClassName) {
-        if (necessaryClasses.contains(loadedClassName)) {
-            enabled++;
-            return true;
+        Integer bit = necessaryClassBits.get(loadedClassName);
+        if (bit == null) {
+            return false;
         }
 
-        return false;
+        long flag = 1L << bit;
+        long current;
+        do {
+            current = loadedMask.get();
+        } while ((current & flag) == 0 && !loadedMask.compareAndSet(current, current | flag));
+
+        return true;
     }
 
     /**
@@ -89,7 +105,7 @@ public abstract class AgentService {
      */
     public void registerMethodAdapter(MethodAdapter methodAdapter) {
         methodAdapterMap.put(methodAdapter.getClassName(), methodAdapter);
-        necessaryClasses.add(methodAdapter.getClassName());
+        addNecessaryClasses(methodAdapter.getClassName());
     }
 
     /**
@@ -98,7 +114,20 @@ public abstract class AgentService {
      * @param classNames classNames
      */
     public void addNecessaryClasses(String... classNames) {
-        necessaryClasses.addAll(Arrays.asList(classNames));
+        for (String className : classNames) {
+            if (!necessaryClasses.add(className)) {
+                continue;
+            }
+
+            int bit = necessaryClassBits.size();
+            if (bit >= Long.SIZE) {
+                throw new IllegalStateException(this + " can not register more than " + Long.SIZE + " necessary " +
+                        "classes.");
+            }
+
+            necessaryClassBits.put(className, bit);
+            readyMask |= 1L << bit;
+        }
     }
 
     /**
@@ -163,10 +192,26 @@ public abstract class AgentService {
     /**
      * Gets enabled.
      *
-     * @return the enabled
+     * @return the count of loaded necessary classes
      */
     public int getEnabled() {
-        return enabled;
+        return Long.bitCount(loadedMask.get());
+    }
+
+    /**
+     * Gets necessary classes which had not been loaded yet.
+     *
+     * @return the missing classes
+     */
+    public Set<String> getMissingClasses() {
+        long loaded = loadedMask.get();
+        Set<String> result = new HashSet<>(4);
+        necessaryClassBits.forEach((className, bit) -> {
+            if ((loaded & (1L << bit)) == 0) {
+                result.add(className);
+            }
+        });
+        return result;
     }
 
 }
@@ -0,0 +1,67 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) [2023] [liuguangsheng]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.liuguangsheng.galois.service;
+
+import com.sun.tools.attach.VirtualMachine;
+
+import java.io.File;
+
+/**
+ * 将galois attach到一个正在运行的JVM上，需要将JDK的tools.jar加入classpath
+ * <p>
+ * java -cp galois.jar:$JAVA_HOME/lib/tools.jar io.liuguangsheng.galois.service.AttachLauncher &lt;pid&gt; [agentArgs]
+ *
+ * @author liuguangsheng
+ * @since 2.0.1
+ */
+public class AttachLauncher {
+
+    private AttachLauncher() {
+    }
+
+    /**
+     * The entry point of application.
+     *
+     * @param args pid and optional agent args
+     * @throws Exception the exception
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: AttachLauncher <pid> [agentArgs]");
+            System.exit(1);
+        }
+
+        String agentJar = new File(AttachLauncher.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+                .getAbsolutePath();
+        VirtualMachine vm = VirtualMachine.attach(args[0]);
+
+        try {
+            vm.loadAgent(agentJar, args.length > 1 ? args[1] : null);
+            System.out.println("Galois attached to " + args[0] + " with " + agentJar + ".");
+        } finally {
+            vm.detach();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) [2023] [liuguangsheng]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.liuguangsheng.galois.service;
+
+import io.liuguangsheng.galois.utils.DigestUtil;
+import io.liuguangsheng.galois.utils.GaloisLog;
+import org.slf4j.Logger;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.net.URL;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static io.liuguangsheng.galois.constants.Constant.DOT;
+import static io.liuguangsheng.galois.constants.Constant.SLASH;
+
+/**
+ * 类当前版本字节码的摘要，用于在重新定义之前丢弃内容未变化的class文件变动。
+ * <p>
+ * 与CustomTransformer一同注册，但在全部目标类转换完成后不会被移除，只记录从目录（而不是jar包）中加载的类，
+ * 即项目自身编译输出的类。重新定义成功后由调用方更新摘要。
+ *
+ * @author liuguangsheng
+ * @since 2.0.1
+ */
+public class ClassDigestRegistry implements ClassFileTransformer {
+
+    private static final Logger logger = new GaloisLog(ClassDigestRegistry.class);
+    private static final String FILE_PROTOCOL = "file";
+    private final Map<String, String> digests = new ConcurrentHashMap<>(1024);
+    private final Map<String, String> loadedDigests = new ConcurrentHashMap<>(1024);
+    private final LongAdder skippedCount = new LongAdder();
+
+    private static class ClassDigestRegistryHolder {
+        private static final ClassDigestRegistry instance = new ClassDigestRegistry();
+    }
+
+    private ClassDigestRegistry() {
+    }
+
+    /**
+     * Gets instance.
+     *
+     * @return the instance
+     */
+    public static ClassDigestRegistry getInstance() {
+        return ClassDigestRegistryHolder.instance;
+    }
+
+    @Override
+    public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                            ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+        // 重新定义时尚不确定能否成功，只记录首次加载
+        if (className != null && classBeingRedefined == null && isLoadedFromDirectory(protectionDomain)) {
+            String name = className.replace(SLASH, DOT);
+            String digest = DigestUtil.sha256Hex(classfileBuffer);
+            digests.put(name, digest);
+            loadedDigests.putIfAbsent(name, digest);
+        }
+
+        return null;
+    }
+
+    /**
+     * 字节码摘要
+     *
+     * @param classBytes class bytes
+     * @return the digest
+     */
+    public String digestOf(byte[] classBytes) {
+        return DigestUtil.sha256Hex(classBytes);
+    }
+
+    /**
+     * 摘要是否与类当前版本一致，未记录过的类视为已变化
+     *
+     * @param className 类名
+     * @param digest    {@link #digestOf(byte[])}
+     * @return is unchanged
+     */
+    public boolean isUnchanged(String className, String digest) {
+        boolean unchanged = digest.equals(digests.get(className));
+        if (unchanged) {
+            skippedCount.increment();
+            if (logger.isDebugEnabled()) {
+                logger.debug("Class {} is unchanged, skip redefining, {} skipped in total.", className,
+                        skippedCount.sum());
+            }
+        }
+        return unchanged;
+    }
+
+    /**
+     * 摘要是否与类首次加载时的版本一致
+     *
+     * @param className 类名
+     * @param digest    {@link #digestOf(byte[])}
+     * @return is loaded version
+     */
+    public boolean isLoadedVersion(String className, String digest) {
+        return digest.equals(loadedDigests.get(className));
+    }
+
+    /**
+     * 类被成功重新定义后记录新版本的摘要
+     *
+     * @param className 类名
+     * @param digest    {@link #digestOf(byte[])}
+     */
+    public void update(String className, String digest) {
+        digests.put(className, digest);
+    }
+
+    private static boolean isLoadedFromDirectory(ProtectionDomain protectionDomain) {
+        CodeSource codeSource = protectionDomain == null ? null : protectionDomain.getCodeSource();
+        URL location = codeSource == null ? null : codeSource.getLocation();
+        return location != null && FILE_PROTOCOL.equals(location.getProtocol())
+                && location.getPath().endsWith(SLASH);
+    }
+}
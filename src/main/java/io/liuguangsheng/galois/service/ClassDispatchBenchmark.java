@@ -0,0 +1,184 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) [2023] [liuguangsheng]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.liuguangsheng.galois.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static io.liuguangsheng.galois.constants.Constant.DOT;
+import static io.liuguangsheng.galois.constants.Constant.SLASH;
+
+/**
+ * 类加载分发的基准测试，对比{@link ClassDispatchIndex}与此前逐个询问AgentService的分发方式。
+ * <p>
+ * 以当前classpath中的类名（JVM内部名，即transformer收到的className）作为输入，预热后各跑若干轮，
+ * 输出每次类加载的最优平均耗时。在IDE中以项目的classpath直接运行main即可复现
+ *
+ * @author liuguangsheng
+ * @since 2.0.1
+ */
+final class ClassDispatchBenchmark {
+
+    private static final String CLASS_SUFFIX = ".class";
+    private static final int MAX_CLASS_NAMES = 40000;
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 5;
+
+    private ClassDispatchBenchmark() {
+    }
+
+    /**
+     * The entry point of application.
+     *
+     * @param args the input arguments
+     * @throws IOException the io exception
+     */
+    public static void main(String[] args) throws IOException {
+        ClassDispatchIndex index = PremainService.getDispatchIndex();
+        List<AgentService> agentServices = index.entries()
+                .stream()
+                .map(ClassDispatchIndex.Entry::getAgentService)
+                .distinct()
+                .collect(Collectors.toList());
+        String[] classNames = classNames();
+
+        System.out.printf("%d class names, %d agent services, %d necessary classes.%n", classNames.length,
+                agentServices.size(), index.size());
+        System.out.printf("agent services: %.1f ns per load%n", measure(() -> byAgentServices(agentServices,
+                classNames), classNames.length));
+        System.out.printf("dispatch index: %.1f ns per load%n", measure(() -> byIndex(index, classNames),
+                classNames.length));
+    }
+
+    /**
+     * 重构前CustomTransformer的分发方式：转换为点分类名后逐个询问AgentService
+     */
+    private static int byAgentServices(List<AgentService> agentServices, String[] classNames) {
+        int hits = 0;
+        for (String className : classNames) {
+            String fullClassName = className.replace(SLASH, DOT);
+            for (AgentService agentService : agentServices) {
+                if (agentService.isNecessaryClass(fullClassName)) {
+                    hits++;
+                    break;
+                }
+            }
+        }
+        return hits;
+    }
+
+    private static int byIndex(ClassDispatchIndex index, String[] classNames) {
+        int hits = 0;
+        for (String className : classNames) {
+            if (index.get(className) != null) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+
+    private static double measure(Round round, int loads) {
+        int hits = 0;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            hits += round.run();
+        }
+
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long begin = System.nanoTime();
+            hits += round.run();
+            best = Math.min(best, System.nanoTime() - begin);
+        }
+
+        // 使用命中数，避免循环被JIT消除
+        if (hits < 0) {
+            System.out.println(hits);
+        }
+        return (double) best / loads;
+    }
+
+    /**
+     * 当前classpath中的类名，不足时重复补齐；另加入全部必备类，使命中的分支也被执行
+     */
+    private static String[] classNames() throws IOException {
+        Set<String> names = new LinkedHashSet<>(MAX_CLASS_NAMES * 2);
+        for (String path : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            File file = new File(path);
+            if (file.isDirectory()) {
+                collect(file, file.getAbsolutePath().length() + 1, names);
+            } else if (file.isFile()) {
+                collect(file, names);
+            }
+            if (names.size() >= MAX_CLASS_NAMES) {
+                break;
+            }
+        }
+
+        PremainService.getDispatchIndex().entries().forEach(entry -> names.add(entry.getInternalName()));
+        List<String> result = new ArrayList<>(names);
+        for (int i = 0; result.size() < MAX_CLASS_NAMES && !names.isEmpty(); i++) {
+            result.add(result.get(i));
+        }
+        return result.toArray(new String[0]);
+    }
+
+    private static void collect(File jar, Set<String> names) throws IOException {
+        try (JarFile jarFile = new JarFile(jar)) {
+            Enumeration<JarEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements() && names.size() < MAX_CLASS_NAMES) {
+                String name = entries.nextElement().getName();
+                if (name.endsWith(CLASS_SUFFIX)) {
+                    names.add(name.substring(0, name.length() - CLASS_SUFFIX.length()));
+                }
+            }
+        }
+    }
+
+    private static void collect(File dir, int rootLength, Set<String> names) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            paths.map(path -> path.toFile().getAbsolutePath())
+                    .filter(path -> path.endsWith(CLASS_SUFFIX))
+                    .limit(Math.max(0, MAX_CLASS_NAMES - names.size()))
+                    .forEach(path -> names.add(path.substring(rootLength, path.length() - CLASS_SUFFIX.length())
+                            .replace(File.separatorChar, '/')));
+        }
+    }
+
+    @FunctionalInterface
+    private interface Round {
+        int run();
+    }
+}
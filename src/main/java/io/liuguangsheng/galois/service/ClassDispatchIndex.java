@@ -0,0 +1,176 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) [2023] [liuguangsheng]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.liuguangsheng.galois.service;
+
+import io.liuguangsheng.galois.utils.GaloisLog;
+import org.slf4j.Logger;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static io.liuguangsheng.galois.constants.Constant.DOT;
+import static io.liuguangsheng.galois.constants.Constant.SLASH;
+
+/**
+ * 类加载分发索引，在premain阶段根据所有AgentService构建，构建完成后不可变。
+ * <p>
+ * 以JVM内部类名（斜杠分隔，即{@link java.lang.instrument.ClassFileTransformer}收到的className）为key，
+ * 直接映射到对应的AgentService与MethodAdapter，使得不相关的类加载只需要一次哈希查找，并且不产生新的对象。
+ *
+ * @author liuguangsheng
+ * @since 2.0.1
+ */
+final class ClassDispatchIndex {
+
+    private static final Logger logger = new GaloisLog(ClassDispatchIndex.class);
+    private final Map<String, Entry> entries;
+    private final Map<String, Entry> entriesByClassName;
+
+    private ClassDispatchIndex(Map<String, Entry> entries) {
+        this.entries = entries;
+        Map<String, Entry> byClassName = new HashMap<>(entries.size() * 2);
+        entries.values().forEach(entry -> byClassName.put(entry.getClassName(), entry));
+        this.entriesByClassName = Collections.unmodifiableMap(byClassName);
+    }
+
+    /**
+     * build index from agent services
+     *
+     * @param agentServices agent services
+     * @return the class dispatch index
+     */
+    static ClassDispatchIndex build(Collection<AgentService> agentServices) {
+        Map<String, Entry> entries = new HashMap<>(32);
+
+        for (AgentService agentService : agentServices) {
+            for (String className : agentService.getNecessaryClasses()) {
+                String internalName = className.replace(DOT, SLASH);
+                MethodAdapter adapter = agentService.getMethodAdapterMap().get(className);
+                Entry entry = new Entry(className, internalName, agentService, adapter);
+                Entry previous = entries.putIfAbsent(internalName, entry);
+
+                if (previous != null) {
+                    logger.warn("Class {} is claimed by both {} and {}, only the former one will be used.", className,
+                            previous.getAgentService(), agentService);
+                }
+            }
+        }
+
+        return new ClassDispatchIndex(Collections.unmodifiableMap(entries));
+    }
+
+    /**
+     * get entry by jvm internal class name
+     *
+     * @param internalName class name in slash form, such as java/lang/Object
+     * @return the entry, or null if no agent service cares about this class
+     */
+    Entry get(String internalName) {
+        return entries.get(internalName);
+    }
+
+    /**
+     * get entry by class name
+     *
+     * @param className class name in dot form, as {@link Class#getName()}
+     * @return the entry, or null if no agent service cares about this class
+     */
+    Entry getByClassName(String className) {
+        return entriesByClassName.get(className);
+    }
+
+    /**
+     * Size int.
+     *
+     * @return the int
+     */
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Entries collection.
+     *
+     * @return the collection
+     */
+    Collection<Entry> entries() {
+        return entries.values();
+    }
+
+    /**
+     * 索引项
+     */
+    static final class Entry {
+        private final String className;
+        private final String internalName;
+        private final AgentService agentService;
+        private final MethodAdapter adapter;
+
+        private Entry(String className, String internalName, AgentService agentService, MethodAdapter adapter) {
+            this.className = className;
+            this.internalName = internalName;
+            this.agentService = agentService;
+            this.adapter = adapter;
+        }
+
+        /**
+         * Gets class name in dot form.
+         *
+         * @return the class name
+         */
+        String getClassName() {
+            return className;
+        }
+
+        /**
+         * Gets class name in slash form.
+         *
+         * @return the internal name
+         */
+        String getInternalName() {
+            return internalName;
+        }
+
+        /**
+         * Gets agent service.
+         *
+         * @return the agent service
+         */
+        AgentService getAgentService() {
+            return agentService;
+        }
+
+        /**
+         * Gets adapter, may be null when the class is only necessary but not to be transformed.
+         *
+         * @return the adapter
+         */
+        MethodAdapter getAdapter() {
+            return adapter;
+        }
+    }
+}
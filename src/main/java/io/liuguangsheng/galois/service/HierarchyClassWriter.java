@@ -0,0 +1,183 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) [2023] [liuguangsheng]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.liuguangsheng.galois.service;
+
+import io.liuguangsheng.galois.utils.GaloisLog;
+import jdk.internal.org.objectweb.asm.ClassReader;
+import jdk.internal.org.objectweb.asm.ClassWriter;
+import jdk.internal.org.objectweb.asm.Opcodes;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static io.liuguangsheng.galois.constants.FileType.CLASS_FILE;
+
+/**
+ * 计算栈帧时不触发类加载的ClassWriter
+ * <p>
+ * ASM默认的{@link ClassWriter#getCommonSuperClass(String, String)}通过Class.forName解析类型，在transformer中调用时会
+ * 引起额外的类加载甚至类加载循环。这里改为通过目标类加载器以资源的形式读取class文件，只解析其类头部的继承信息，
+ * 并按类加载器缓存解析结果。
+ *
+ * @author liuguangsheng
+ * @since 2.0.1
+ */
+public class HierarchyClassWriter extends ClassWriter {
+
+    private static final Logger logger = new GaloisLog(HierarchyClassWriter.class);
+    private static final String OBJECT = "java/lang/Object";
+    private static final Map<ClassLoader, Map<String, TypeInfo>> hierarchyCache =
+            Collections.synchronizedMap(new WeakHashMap<>(4));
+    private final ClassLoader loader;
+
+    /**
+     * Instantiates a new Hierarchy class writer.
+     *
+     * @param classReader the class reader
+     * @param flags       the flags
+     * @param loader      the loader which defines the class being written, null means bootstrap loader
+     */
+    public HierarchyClassWriter(ClassReader classReader, int flags, ClassLoader loader) {
+        super(classReader, flags);
+        this.loader = loader == null ? ClassLoader.getSystemClassLoader() : loader;
+    }
+
+    @Override
+    protected String getCommonSuperClass(String type1, String type2) {
+        if (type1.equals(type2)) {
+            return type1;
+        }
+        if (OBJECT.equals(type1) || OBJECT.equals(type2)) {
+            return OBJECT;
+        }
+
+        TypeInfo info1 = resolve(type1);
+        TypeInfo info2 = resolve(type2);
+        if (info1 == null || info2 == null) {
+            return OBJECT;
+        }
+
+        if (isAssignableFrom(type1, info2)) {
+            return type1;
+        }
+        if (isAssignableFrom(type2, info1)) {
+            return type2;
+        }
+        if (info1.isInterface || info2.isInterface) {
+            return OBJECT;
+        }
+
+        Set<String> superClasses2 = new HashSet<>(8);
+        for (TypeInfo info = info2; info != null; info = resolve(info.superName)) {
+            superClasses2.add(info.name);
+        }
+        for (TypeInfo info = info1; info != null; info = resolve(info.superName)) {
+            if (superClasses2.contains(info.name)) {
+                return info.name;
+            }
+        }
+
+        return OBJECT;
+    }
+
+    /**
+     * type是否为info本身或其父类、父接口
+     */
+    private boolean isAssignableFrom(String type, TypeInfo info) {
+        Deque<TypeInfo> queue = new ArrayDeque<>();
+        Set<String> visited = new HashSet<>(8);
+        queue.add(info);
+
+        while (!queue.isEmpty()) {
+            TypeInfo current = queue.poll();
+            if (!visited.add(current.name)) {
+                continue;
+            }
+            if (type.equals(current.name)) {
+                return true;
+            }
+
+            Optional.ofNullable(resolve(current.superName)).ifPresent(queue::add);
+            for (String itf : current.interfaces) {
+                Optional.ofNullable(resolve(itf)).ifPresent(queue::add);
+            }
+        }
+
+        return false;
+    }
+
+    private TypeInfo resolve(String type) {
+        if (type == null) {
+            return null;
+        }
+
+        Map<String, TypeInfo> cache = hierarchyCache.computeIfAbsent(loader, key -> new ConcurrentHashMap<>(64));
+        TypeInfo info = cache.get(type);
+        if (info == null) {
+            info = readTypeInfo(type);
+            if (info != null) {
+                cache.putIfAbsent(type, info);
+            }
+        }
+
+        return info;
+    }
+
+    private TypeInfo readTypeInfo(String type) {
+        try (InputStream is = loader.getResourceAsStream(type + CLASS_FILE.getFileType())) {
+            if (is == null) {
+                logger.debug("Can not find class file of {} when computing frames, treat it as {}.", type, OBJECT);
+                return null;
+            }
+
+            ClassReader reader = new ClassReader(is);
+            boolean isInterface = (reader.getAccess() & Opcodes.ACC_INTERFACE) != 0;
+            return new TypeInfo(type, reader.getSuperName(), reader.getInterfaces(), isInterface);
+        } catch (IOException e) {
+            logger.debug("Read class file of {} fail when computing frames.", type, e);
+            return null;
+        }
+    }
+
+    /**
+     * 类的继承信息
+     */
+    private static class TypeInfo {
+        private final String name;
+        private final String superName;
+        private final String[] interfaces;
+        private final boolean isInterface;
+
+        private TypeInfo(String name, String superName, String[] interfaces, boolean isInterface) {
+            this.name = name;
+            this.superName = superName;
+            this.interfaces = interfaces;
+            this.isInterface = isInterface;
+        }
+    }
+}
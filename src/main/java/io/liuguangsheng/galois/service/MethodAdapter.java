@@ -96,6 +96,16 @@ public abstract class MethodAdapter extends ClassVisitor {
         debugClassFile(result);
     }
 
+    /**
+     * 当前adapter是否保持原有的栈帧不变。仅追加代码（不引入新的跳转、不改变已有跳转目标处的栈状态）的adapter可以返回
+     * true，以跳过整个类的栈帧计算
+     *
+     * @return the boolean
+     */
+    protected boolean keepFrames() {
+        return false;
+    }
+
     /**
      * convert byte[] of original class file
      *
@@ -103,13 +113,25 @@ public abstract class MethodAdapter extends ClassVisitor {
      * @return the byte []
      */
     public byte[] transform(byte[] classBytes) {
+        return transform(null, classBytes);
+    }
+
+    /**
+     * convert byte[] of original class file
+     *
+     * @param loader     the loader which defines the class, used to resolve class hierarchy when computing frames
+     * @param classBytes the class bytes
+     * @return the byte []
+     */
+    public byte[] transform(ClassLoader loader, byte[] classBytes) {
 
         try {
             cr = new ClassReader(classBytes);
             // COMPUTE_MAXS means automatically compute the maximum stack size and the maximum number of local
             // variables of methods.
             // COMPUTE_FRAMES means automatically compute the stack map frames of methods from scratch.
-            cw = new ClassWriter(cr, ClassWriter.COMPUTE_FRAMES + ClassWriter.COMPUTE_MAXS);
+            int flags = keepFrames() ? ClassWriter.COMPUTE_MAXS : ClassWriter.COMPUTE_FRAMES + ClassWriter.COMPUTE_MAXS;
+            cw = new HierarchyClassWriter(cr, flags, loader);
             cv = this.cw;
         } catch (Exception e) {
             logger.error("Create new methodAdapter for class {} fail.", className, e);
@@ -154,6 +176,16 @@ public abstract class MethodAdapter extends ClassVisitor {
         return true;
     }
 
+    /**
+     * 当前adapter能否通过retransformClasses应用到已经加载的类上。JVM不允许retransform增删方法或字段，
+     * 这类adapter只能在类首次加载时生效
+     *
+     * @return the boolean
+     */
+    public boolean isRetransformable() {
+        return true;
+    }
+
     /**
      * Gets class name.
      *
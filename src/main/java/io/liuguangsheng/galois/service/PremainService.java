@@ -25,25 +25,35 @@
 package io.liuguangsheng.galois.service;
 
 import io.liuguangsheng.galois.service.annotation.AsmVisitor;
+import io.liuguangsheng.galois.service.spring.LiveObjectCapturer;
 import io.liuguangsheng.galois.service.spring.runners.AbstractRunner;
+import io.liuguangsheng.galois.service.spring.runners.AgentInitializeRunner;
 import io.liuguangsheng.galois.service.spring.runners.SpringRunnerManager;
 import io.liuguangsheng.galois.utils.ClassUtil;
 import io.liuguangsheng.galois.utils.GaloisLog;
-import io.liuguangsheng.galois.utils.StringUtil;
+import io.liuguangsheng.galois.utils.ServiceIndex;
 import org.slf4j.Logger;
 
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.Instrumentation;
+import java.lang.instrument.UnmodifiableClassException;
 import java.lang.reflect.Modifier;
 import java.security.ProtectionDomain;
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 
 import static io.liuguangsheng.galois.constants.ClassNameConstant.PACKAGE_SERVICE;
-import static io.liuguangsheng.galois.constants.Constant.*;
+import static io.liuguangsheng.galois.constants.Constant.COMMA;
+import static io.liuguangsheng.galois.utils.ServiceIndex.Category.*;
 
 /**
  * premain agent服务入口
@@ -56,16 +66,30 @@ public class PremainService {
     private static final Logger logger = new GaloisLog(PremainService.class);
     private static final Map<String, AgentService> agentServiceMap = new HashMap<>(8);
     private static final SpringRunnerManager runManager = SpringRunnerManager.getInstance();
+    private static final ServiceIndex serviceIndex = ServiceIndex.getInstance();
+    private static final ClassDispatchIndex dispatchIndex;
+    private static volatile CustomTransformer transformer;
 
     static {
         scanAgentService();
         scanAsmVisitor();
         scanRunner();
+        dispatchIndex = ClassDispatchIndex.build(agentServiceMap.values());
 
         logger.debug("Scan {} agentServices as list [{}].", agentServiceMap.keySet().size(), agentServiceMap.values()
                 .stream()
                 .map(AgentService::toString)
                 .collect(Collectors.joining(COMMA)));
+        logger.debug("Build class dispatch index with {} classes.", dispatchIndex.size());
+    }
+
+    /**
+     * Gets class dispatch index.
+     *
+     * @return the class dispatch index
+     */
+    static ClassDispatchIndex getDispatchIndex() {
+        return dispatchIndex;
     }
 
     /**
@@ -81,7 +105,9 @@ public class PremainService {
         }
 
         try {
-            inst.addTransformer(new CustomTransformer(), true);
+            transformer = new CustomTransformer(inst, dispatchIndex);
+            inst.addTransformer(transformer, true);
+            inst.addTransformer(ClassDigestRegistry.getInstance());
             ClassUtil.setInstrumentation(inst);
 //            BannerService.printBanner();
         } catch (Throwable e) {
@@ -89,11 +115,92 @@ public class PremainService {
         }
     }
 
+    /**
+     * agentmain entry, attach galois to a running jvm
+     *
+     * @param agentArgs agent args
+     * @param inst      instrument object
+     */
+    public static void agentmain(String agentArgs, Instrumentation inst) {
+        if (inst == null) {
+            logger.error("Your program do not support instrumentation, attach galois fail.");
+            return;
+        }
+
+        try {
+            ClassUtil.setInstrumentation(inst);
+            transformer = new CustomTransformer(inst, dispatchIndex);
+            inst.addTransformer(transformer, true);
+            inst.addTransformer(ClassDigestRegistry.getInstance());
+            retransformLoadedClasses(inst, transformer);
+
+            if (LiveObjectCapturer.capture()) {
+                new AgentInitializeRunner().initialize();
+            } else {
+                completeTransform();
+            }
+        } catch (Throwable e) {
+            logger.error("Start Agentmain Service fail.", e);
+        }
+    }
+
+    /**
+     * 应用启动完成后不再等待尚未加载的目标类，移除transformer并输出统计。
+     * 未引入MyBatis或不是web应用时，部分目标类永远不会加载，只依靠转换完成来移除transformer会让它一直保留
+     */
+    public static void completeTransform() {
+        CustomTransformer current = transformer;
+        if (current != null) {
+            current.abandonAll();
+            logger.info("Startup {}.", TransformCache.getInstance().summary());
+        }
+    }
+
+    /**
+     * 对已经加载的目标类执行retransform，使MethodAdapter生效
+     *
+     * @param inst        instrument object
+     * @param transformer the transformer
+     * @throws UnmodifiableClassException the unmodifiable class exception
+     */
+    private static void retransformLoadedClasses(Instrumentation inst, CustomTransformer transformer)
+            throws UnmodifiableClassException {
+        List<Class<?>> targets = new ArrayList<>(8);
+        List<String> skipped = new ArrayList<>(4);
+
+        for (Class<?> clazz : inst.getAllLoadedClasses()) {
+            ClassDispatchIndex.Entry entry = dispatchIndex.getByClassName(clazz.getName());
+            if (entry == null) {
+                continue;
+            }
+
+            entry.getAgentService().isNecessaryClass(entry.getClassName());
+            MethodAdapter adapter = entry.getAdapter();
+            if (adapter == null) {
+                continue;
+            }
+
+            if (adapter.isRetransformable() && inst.isModifiableClass(clazz)) {
+                targets.add(clazz);
+            } else {
+                skipped.add(entry.getInternalName());
+            }
+        }
+
+        if (!targets.isEmpty()) {
+            inst.retransformClasses(targets.toArray(new Class<?>[0]));
+        }
+        // 已加载但无法retransform的类不会再经过transformer，不必再等待它们
+        skipped.forEach(transformer::abandon);
+
+        logger.info("Retransform {} loaded classes {}, skip {}.", targets.size(), targets, skipped);
+    }
+
     /**
      * scan agent service
      */
     private static void scanAgentService() {
-        ClassUtil.scanBaseClass(PACKAGE_SERVICE, AgentService.class)
+        serviceIndex.getClasses(AGENT_SERVICE, () -> ClassUtil.scanBaseClass(PACKAGE_SERVICE, AgentService.class))
                 .stream()
                 .filter(clazz -> !Modifier.isAbstract(clazz.getModifiers()))
                 .forEach(clazz -> {
@@ -108,7 +215,7 @@ public class PremainService {
      * scan asm visitor
      */
     private static void scanAsmVisitor() {
-        ClassUtil.scanBaseClass(PACKAGE_SERVICE, MethodAdapter.class)
+        serviceIndex.getClasses(ASM_VISITOR, () -> ClassUtil.scanBaseClass(PACKAGE_SERVICE, MethodAdapter.class))
                 .stream()
                 .filter(clazz -> !Modifier.isAbstract(clazz.getModifiers()))
                 .forEach(clazz -> {
@@ -129,7 +236,7 @@ public class PremainService {
      * scan runner
      */
     private static void scanRunner() {
-        ClassUtil.scanBaseClass(PACKAGE_SERVICE, AbstractRunner.class)
+        serviceIndex.getClasses(RUNNER, () -> ClassUtil.scanBaseClass(PACKAGE_SERVICE, AbstractRunner.class))
                 .stream()
                 .filter(clazz -> !Modifier.isAbstract(clazz.getModifiers()))
                 .map(ClassUtil::getInstance)
@@ -140,34 +247,119 @@ public class PremainService {
 
     /**
      * custom class file transformer
+     * <p>
+     * 当所有MethodAdapter对应的类都已经完成转换，或应用启动完成后，该transformer会将自己从Instrumentation中移除，
+     * 避免之后的每一次类加载（lambda、代理类、CGLIB类等）都再经过它
      *
      * @author liuguangsheng
      */
     static class CustomTransformer implements ClassFileTransformer {
 
+        private final TransformCache transformCache = TransformCache.getInstance();
+        private final Instrumentation inst;
+        private final ClassDispatchIndex index;
+        /**
+         * 尚未完成转换的类，JVM内部类名
+         */
+        private final Set<String> pendingClasses = ConcurrentHashMap.newKeySet();
+        private final AtomicBoolean removed = new AtomicBoolean(false);
+        private final LongAdder inspectedCount = new LongAdder();
+        private final LongAdder transformedCount = new LongAdder();
+        private final long installTime = System.currentTimeMillis();
+
+        /**
+         * Instantiates a new Custom transformer.
+         *
+         * @param inst  the inst
+         * @param index the index
+         */
+        CustomTransformer(Instrumentation inst, ClassDispatchIndex index) {
+            this.inst = inst;
+            this.index = index;
+
+            for (ClassDispatchIndex.Entry entry : index.entries()) {
+                if (entry.getAdapter() != null) {
+                    pendingClasses.add(entry.getInternalName());
+                }
+            }
+        }
+
         @Override
         public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
                                 ProtectionDomain protectionDomain, byte[] classfileBuffer) {
-            if (StringUtil.isBlank(className)) {
+            inspectedCount.increment();
+
+            // className为null时表示这是一个匿名类（如lambda），直接跳过
+            if (className == null) {
                 return null;
             }
 
-            String fullClassName = className.replace(SLASH, DOT);
-            Collection<AgentService> agentServices = agentServiceMap.values();
+            // 绝大多数类加载都会在这里以一次哈希查找结束，不产生任何新对象
+            ClassDispatchIndex.Entry entry = index.get(className);
+            if (entry == null) {
+                return null;
+            }
 
-            for (AgentService agentService : agentServices) {
-                boolean isNecessaryClass = agentService.isNecessaryClass(fullClassName);
-                // checkedClass表示当前加载的类newClassName是否有对应的MethodAdapter，当为false时，
-                // 表示没有对应的MethodAdapter，这时候就直接跳过
-                if (!isNecessaryClass) {
-                    continue;
-                }
+            entry.getAgentService().isNecessaryClass(entry.getClassName());
+            MethodAdapter adapter = entry.getAdapter();
+            if (adapter == null) {
+                return null;
+            }
+
+            byte[] result = transformCache.get(adapter, classfileBuffer);
+            if (result == null) {
+                long begin = System.nanoTime();
+                result = adapter.transform(loader, classfileBuffer);
+                transformCache.put(adapter, classfileBuffer, result, System.nanoTime() - begin);
+            }
+            transformedCount.increment();
+
+            if (pendingClasses.remove(className) && pendingClasses.isEmpty()) {
+                removeSelf();
+            }
+
+            return result;
+        }
+
+        /**
+         * 放弃等待某个目标类的转换
+         *
+         * @param internalName class name in slash form
+         */
+        void abandon(String internalName) {
+            if (pendingClasses.remove(internalName) && pendingClasses.isEmpty()) {
+                removeSelf();
+            }
+        }
+
+        /**
+         * 放弃等待所有尚未加载的目标类
+         */
+        void abandonAll() {
+            if (removed.get()) {
+                return;
+            }
+
+            Set<String> missing = new TreeSet<>(pendingClasses);
+            pendingClasses.removeAll(missing);
+            if (!missing.isEmpty()) {
+                logger.info("Stop waiting for target classes {} which were not loaded during startup.", missing);
+            }
+            removeSelf();
+        }
 
-                MethodAdapter adapter = agentService.getMethodAdapterMap().get(fullClassName);
-                return adapter.transform(classfileBuffer);
+        /**
+         * 所有目标类都已完成转换，移除当前transformer
+         */
+        private void removeSelf() {
+            if (!removed.compareAndSet(false, true)) {
+                return;
             }
 
-            return null;
+            inst.removeTransformer(this);
+            logger.info("Target classes had been handled with {} transformed, remove transformer after " +
+                            "inspecting {} class loads in {} ms.", transformedCount.sum(), inspectedCount.sum(),
+                    System.currentTimeMillis() - installTime);
         }
     }
 }
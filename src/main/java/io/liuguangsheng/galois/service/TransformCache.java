@@ -0,0 +1,278 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) [2023] [liuguangsheng]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.liuguangsheng.galois.service;
+
+import io.liuguangsheng.galois.conf.GlobalConfiguration;
+import io.liuguangsheng.galois.utils.DigestUtil;
+import io.liuguangsheng.galois.utils.GaloisLog;
+import io.liuguangsheng.galois.utils.StringUtil;
+import org.slf4j.Logger;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+import static io.liuguangsheng.galois.constants.ConfConstant.*;
+import static io.liuguangsheng.galois.constants.Constant.DOT;
+import static io.liuguangsheng.galois.constants.Constant.SLASH;
+import static io.liuguangsheng.galois.constants.FileType.CLASS_FILE;
+
+/**
+ * MethodAdapter转换结果的磁盘缓存
+ * <p>
+ * 以原始字节码、MethodAdapter类（包括其自身字节码）以及galois版本号的摘要作为key，命中时直接返回转换后的字节码，
+ * 不再经过ASM的解析与栈帧计算。缓存文件带有校验信息，损坏或过期的缓存文件会被删除并重新生成。
+ *
+ * @author liuguangsheng
+ * @since 2.0.1
+ */
+public class TransformCache {
+
+    private static final Logger logger = new GaloisLog(TransformCache.class);
+    private static final GlobalConfiguration config = GlobalConfiguration.getInstance();
+    private static final int MAGIC = 0x47414C53;
+    private static final int CLASS_MAGIC = 0xCAFEBABE;
+    private static final String CACHE_FILE_SUFFIX = ".cache";
+    private static final String TMP_FILE_SUFFIX = ".tmp";
+    private static final String DEFAULT_CACHE_DIR = "GaloisCache";
+
+    private final boolean enabled;
+    private final File cacheDir;
+    private final String galoisVersion;
+    private final Map<Class<?>, String> adapterDigests = new ConcurrentHashMap<>(16);
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder corruptCount = new LongAdder();
+    private final LongAdder savedNanos = new LongAdder();
+
+    private static class TransformCacheHolder {
+        private static final TransformCache instance = new TransformCache();
+    }
+
+    private TransformCache() {
+        galoisVersion = config.getStr(GALOIS_VERSION);
+        String dir = config.getStr(TRANSFORM_CACHE_DIR);
+        cacheDir = StringUtil.isBlank(dir)
+                ? new File(System.getProperty("java.io.tmpdir"), DEFAULT_CACHE_DIR)
+                : new File(dir);
+        enabled = config.getBool(TRANSFORM_CACHE_ENABLE, true) && checkVersion() && prepareCacheDir();
+    }
+
+    /**
+     * Gets instance.
+     *
+     * @return the instance
+     */
+    public static TransformCache getInstance() {
+        return TransformCacheHolder.instance;
+    }
+
+    /**
+     * 版本号是缓存key的一部分，缺少版本号时无法区分不同版本的galois写出的缓存
+     */
+    private boolean checkVersion() {
+        if (!StringUtil.isBlank(galoisVersion)) {
+            return true;
+        }
+
+        logger.warn("Galois version is missing, transform cache disabled.");
+        return false;
+    }
+
+    private boolean prepareCacheDir() {
+        if (cacheDir.isDirectory() || cacheDir.mkdirs()) {
+            return true;
+        }
+
+        logger.warn("Create transform cache directory {} fail, transform cache disabled.", cacheDir);
+        return false;
+    }
+
+    /**
+     * 获取缓存的转换结果
+     *
+     * @param adapter       the adapter
+     * @param originalBytes the original class bytes
+     * @return 转换后的字节码 ，未命中时返回null
+     */
+    public byte[] get(MethodAdapter adapter, byte[] originalBytes) {
+        if (!enabled) {
+            return null;
+        }
+
+        long begin = System.nanoTime();
+        File cacheFile = getCacheFile(adapter, originalBytes);
+        if (!cacheFile.isFile()) {
+            missCount.increment();
+            return null;
+        }
+
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+            if (dis.readInt() != MAGIC
+                    || !galoisVersion.equals(dis.readUTF())
+                    || !adapter.getClass().getName().equals(dis.readUTF())) {
+                return rebuild(cacheFile, "stale header");
+            }
+
+            long transformNanos = dis.readLong();
+            byte[] result = new byte[dis.readInt()];
+            dis.readFully(result);
+            long checksum = dis.readLong();
+
+            if (result.length < 4 || readMagic(result) != CLASS_MAGIC || checksum(result) != checksum) {
+                return rebuild(cacheFile, "checksum mismatch");
+            }
+
+            hitCount.increment();
+            savedNanos.add(Math.max(0, transformNanos - (System.nanoTime() - begin)));
+            return result;
+        } catch (IOException | RuntimeException e) {
+            return rebuild(cacheFile, e.toString());
+        }
+    }
+
+    /**
+     * 记录转换结果
+     *
+     * @param adapter        the adapter
+     * @param originalBytes  the original class bytes
+     * @param result         the transformed class bytes
+     * @param transformNanos the transform cost in nanos
+     */
+    public void put(MethodAdapter adapter, byte[] originalBytes, byte[] result, long transformNanos) {
+        if (!enabled || result == null) {
+            return;
+        }
+
+        File cacheFile = getCacheFile(adapter, originalBytes);
+        Path tmpFile = null;
+
+        try {
+            // 多个JVM共享同一个缓存目录，临时文件名必须唯一
+            tmpFile = Files.createTempFile(cacheDir.toPath(), cacheFile.getName(), TMP_FILE_SUFFIX);
+            try (DataOutputStream dos =
+                         new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+                dos.writeInt(MAGIC);
+                dos.writeUTF(galoisVersion);
+                dos.writeUTF(adapter.getClass().getName());
+                dos.writeLong(transformNanos);
+                dos.writeInt(result.length);
+                dos.write(result);
+                dos.writeLong(checksum(result));
+            }
+            // 先写临时文件再原子替换，避免其它JVM读到写了一半的缓存
+            Files.move(tmpFile, cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Write transform cache of {} fail.", adapter.getClassName(), e);
+            deleteQuietly(tmpFile);
+        }
+    }
+
+    /**
+     * 缓存命中情况汇总
+     *
+     * @return the summary
+     */
+    public String summary() {
+        if (!enabled) {
+            return "transform cache disabled";
+        }
+
+        long hits = hitCount.sum();
+        long total = hits + missCount.sum();
+        long rate = total == 0 ? 0 : hits * 100 / total;
+        return String.format("transform cache hit %d/%d (%d%%), corrupt %d, saved %d ms", hits, total, rate,
+                corruptCount.sum(), TimeUnit.NANOSECONDS.toMillis(savedNanos.sum()));
+    }
+
+    private byte[] rebuild(File cacheFile, String reason) {
+        corruptCount.increment();
+        missCount.increment();
+        logger.warn("Transform cache file {} is invalid ({}), it will be rebuilt.", cacheFile.getName(), reason);
+        cacheFile.delete();
+        return null;
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignored) {
+            // 残留的临时文件不会被当作缓存读取
+        }
+    }
+
+    private File getCacheFile(MethodAdapter adapter, byte[] originalBytes) {
+        String adapterDigest = adapterDigests.computeIfAbsent(adapter.getClass(), TransformCache::digestOfClass);
+        String key = DigestUtil.sha256Hex(galoisVersion, adapter.getClass().getName(), adapterDigest,
+                DigestUtil.sha256Hex(originalBytes));
+        return new File(cacheDir, key + CACHE_FILE_SUFFIX);
+    }
+
+    /**
+     * adapter自身的字节码也作为key的一部分，这样SNAPSHOT版本中修改了adapter后缓存也会失效
+     */
+    private static String digestOfClass(Class<?> clazz) {
+        String resource = clazz.getName().replace(DOT, SLASH) + CLASS_FILE.getFileType();
+        ClassLoader loader = clazz.getClassLoader() == null ? ClassLoader.getSystemClassLoader() :
+                clazz.getClassLoader();
+
+        try (InputStream is = loader.getResourceAsStream(resource)) {
+            if (is == null) {
+                return "";
+            }
+
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = is.read(buffer)) != -1) {
+                bos.write(buffer, 0, n);
+            }
+            return DigestUtil.sha256Hex(bos.toByteArray());
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    private static int readMagic(byte[] bytes) {
+        return ((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16) | ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF);
+    }
+
+    private static long checksum(byte[] bytes) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(bytes, 0, bytes.length);
+        return crc32.getValue();
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) [2023] [liuguangsheng]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.liuguangsheng.galois.service.compiler;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * 一次进程内编译的结果，编译失败时带有结构化的诊断信息
+ *
+ * @author liuguangsheng
+ * @since 2.0.1
+ */
+public class CompileResult {
+
+    private final Map<String, byte[]> classes;
+    private final List<Problem> problems;
+    private final long costMillis;
+
+    /**
+     * Instantiates a new Compile result.
+     *
+     * @param classes    编译出的类名到字节码，编译失败时为空
+     * @param problems   the problems
+     * @param costMillis the cost millis
+     */
+    CompileResult(Map<String, byte[]> classes, List<Problem> problems, long costMillis) {
+        this.classes = Collections.unmodifiableMap(classes);
+        this.problems = Collections.unmodifiableList(problems);
+        this.costMillis = costMillis;
+    }
+
+    /**
+     * 编译是否成功
+     *
+     * @return the boolean
+     */
+    public boolean isSuccess() {
+        return !classes.isEmpty() && getErrors().isEmpty();
+    }
+
+    /**
+     * Gets classes.
+     *
+     * @return 类名到字节码
+     */
+    public Map<String, byte[]> getClasses() {
+        return classes;
+    }
+
+    /**
+     * Gets problems.
+     *
+     * @return the problems
+     */
+    public List<Problem> getProblems() {
+        return problems;
+    }
+
+    /**
+     * Gets errors.
+     *
+     * @return the errors
+     */
+    public List<Problem> getErrors() {
+        return problems.stream().filter(Problem::isError).collect(Collectors.toList());
+    }
+
+    /**
+     * Gets cost millis.
+     *
+     * @return the cost millis
+     */
+    public long getCostMillis() {
+        return costMillis;
+    }
+
+    /**
+     * 编译诊断信息
+     */
+    public static class Problem {
+
+        private final Diagnostic.Kind kind;
+        private final String source;
+        private final long line;
+        private final long column;
+        private final String code;
+        private final String message;
+
+        /**
+         * Instantiates a new Problem.
+         *
+         * @param kind    the kind
+         * @param source  the source
+         * @param line    the line
+         * @param column  the column
+         * @param code    the code
+         * @param message the message
+         */
+        Problem(Diagnostic.Kind kind, String source, long line, long column, String code, String message) {
+            this.kind = kind;
+            this.source = source;
+            this.line = line;
+            this.column = column;
+            this.code = code;
+            this.message = message;
+        }
+
+        /**
+         * From problem.
+         *
+         * @param diagnostic the diagnostic
+         * @return the problem
+         */
+        static Problem from(Diagnostic<? extends JavaFileObject> diagnostic) {
+            JavaFileObject source = diagnostic.getSource();
+            return new Problem(diagnostic.getKind(), source == null ? null : source.getName(),
+                    diagnostic.getLineNumber(), diagnostic.getColumnNumber(), diagnostic.getCode(),
+                    diagnostic.getMessage(Locale.getDefault()));
+        }
+
+        /**
+         * Is error boolean.
+         *
+         * @return the boolean
+         */
+        public boolean isError() {
+            return kind == Diagnostic.Kind.ERROR;
+        }
+
+        /**
+         * Gets kind.
+         *
+         * @return the kind
+         */
+        public Diagnostic.Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * Gets source.
+         *
+         * @return the source, null when the problem is not related to a source file
+         */
+        public String getSource() {
+            return source;
+        }
+
+        /**
+         * Gets line.
+         *
+         * @return the line, {@link Diagnostic#NOPOS} when unknown
+         */
+        public long getLine() {
+            return line;
+        }
+
+        /**
+         * Gets column.
+         *
+         * @return the column, {@link Diagnostic#NOPOS} when unknown
+         */
+        public long getColumn() {
+            return column;
+        }
+
+        /**
+         * Gets code.
+         *
+         * @return the compiler key of the diagnostic
+         */
+        public String getCode() {
+            return code;
+        }
+
+        /**
+         * Gets message.
+         *
+         * @return the message
+         */
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            String position = line == Diagnostic.NOPOS ? "" : ":" + line + ":" + column;
+            return (source == null ? "" : source + position + ": ") + kind.toString().toLowerCase(Locale.ROOT) +
+                    ": " + message;
+        }
+    }
+}
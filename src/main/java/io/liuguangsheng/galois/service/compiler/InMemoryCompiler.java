@@ -0,0 +1,216 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) [2023] [liuguangsheng]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.liuguangsheng.galois.service.compiler;
+
+import io.liuguangsheng.galois.conf.GlobalConfiguration;
+import io.liuguangsheng.galois.utils.GaloisLog;
+import io.liuguangsheng.galois.utils.StringUtil;
+import org.slf4j.Logger;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static io.liuguangsheng.galois.constants.ConfConstant.COMPILER_ENABLE;
+import static io.liuguangsheng.galois.constants.ConfConstant.COMPILER_OPTIONS;
+
+/**
+ * 进程内的增量编译服务，基于{@link JavaCompiler}只编译变动的源码文件，以运行中应用的classpath作为编译classpath，
+ * 编译结果直接保留在内存中，不再经过磁盘。
+ * <p>
+ * 编译器与JavaFileManager在多次编译之间复用，classpath未变化时不会重新设置，jar包索引只需建立一次；
+ * 之前编译出的类在之后的编译中作为依赖，优先于磁盘上较旧的class文件。
+ * 运行在JRE上、找不到系统编译器时，该服务不可用，仍由IDE等外部构建产出class文件
+ *
+ * @author liuguangsheng
+ * @since 2.0.1
+ */
+public class InMemoryCompiler {
+
+    private static final Logger logger = new GaloisLog(InMemoryCompiler.class);
+    private static final GlobalConfiguration config = GlobalConfiguration.getInstance();
+    private final boolean enabled = config.getBool(COMPILER_ENABLE, true);
+    private final List<String> options = new ArrayList<>(Arrays.asList("-g", "-proc:none", "-implicit:none",
+            "-nowarn", "-encoding", StandardCharsets.UTF_8.name()));
+    private JavaCompiler compiler;
+    private MemoryJavaFileManager fileManager;
+    private List<File> classPath = Collections.emptyList();
+
+    private static class InMemoryCompilerHolder {
+        private static final InMemoryCompiler instance = new InMemoryCompiler();
+    }
+
+    private InMemoryCompiler() {
+        String extraOptions = config.getStr(COMPILER_OPTIONS, "");
+        if (!StringUtil.isBlank(extraOptions)) {
+            options.addAll(Arrays.asList(extraOptions.trim().split("\\s+")));
+        }
+
+        if (!enabled) {
+            return;
+        }
+
+        try {
+            compiler = ToolProvider.getSystemJavaCompiler();
+        } catch (Throwable e) {
+            logger.debug("Load system java compiler fail.", e);
+        }
+
+        if (compiler == null) {
+            logger.info("No system java compiler found in {}, changed sources will wait for the external build.",
+                    System.getProperty("java.home"));
+            return;
+        }
+
+        fileManager = new MemoryJavaFileManager(compiler.getStandardFileManager(null, null,
+                StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Gets instance.
+     *
+     * @return the instance
+     */
+    public static InMemoryCompiler getInstance() {
+        return InMemoryCompilerHolder.instance;
+    }
+
+    /**
+     * 进程内编译是否可用
+     *
+     * @return the boolean
+     */
+    public boolean isAvailable() {
+        return fileManager != null;
+    }
+
+    /**
+     * 编译一组源码文件，同一批次的源码在一次编译中完成，可以相互引用
+     *
+     * @param sources     源码文件
+     * @param classLoader 这些类所在的类加载器，其classpath作为编译classpath
+     * @return the compile result
+     */
+    public synchronized CompileResult compile(Collection<File> sources, ClassLoader classLoader) {
+        if (!isAvailable()) {
+            throw new IllegalStateException("In-process compiler is not available.");
+        }
+
+        long begin = System.nanoTime();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        Boolean success;
+        try {
+            updateClassPath(classLoader);
+            Iterable<? extends JavaFileObject> units = fileManager.getStandardFileManager()
+                    .getJavaFileObjectsFromFiles(sources);
+            success = compiler.getTask(null, fileManager, diagnostics, options, null, units).call();
+        } catch (Throwable e) {
+            // 编译器内部错误或参数错误，同样作为一条编译错误返回
+            fileManager.takeOutputs();
+            CompileResult.Problem problem = new CompileResult.Problem(Diagnostic.Kind.ERROR, null,
+                    Diagnostic.NOPOS, Diagnostic.NOPOS, e.getClass().getName(), String.valueOf(e.getMessage()));
+            return new CompileResult(Collections.emptyMap(), Collections.singletonList(problem), cost(begin));
+        }
+
+        List<CompileResult.Problem> problems = new ArrayList<>(diagnostics.getDiagnostics().size());
+        diagnostics.getDiagnostics().forEach(diagnostic -> problems.add(CompileResult.Problem.from(diagnostic)));
+        if (!Boolean.TRUE.equals(success)) {
+            fileManager.takeOutputs();
+            return new CompileResult(Collections.emptyMap(), problems, cost(begin));
+        }
+
+        CompileResult result = new CompileResult(fileManager.takeOutputs(), problems, cost(begin));
+        fileManager.retain(result.getClasses());
+        if (logger.isDebugEnabled()) {
+            logger.debug("Compile {} sources into {} classes in {} ms.", sources.size(), result.getClasses().size(),
+                    result.getCostMillis());
+        }
+        return result;
+    }
+
+    /**
+     * 以类加载器链上的全部本地路径与java.class.path作为编译classpath，未变化时不重新设置
+     */
+    private void updateClassPath(ClassLoader classLoader) throws IOException {
+        Set<File> files = new LinkedHashSet<>();
+        List<ClassLoader> loaders = new ArrayList<>(4);
+        for (ClassLoader loader = classLoader; loader != null; loader = loader.getParent()) {
+            loaders.add(loader);
+        }
+        // 父加载器的路径在前，与类加载的委派顺序一致
+        Collections.reverse(loaders);
+        for (ClassLoader loader : loaders) {
+            if (loader instanceof URLClassLoader) {
+                for (URL url : ((URLClassLoader) loader).getURLs()) {
+                    if (!"file".equals(url.getProtocol())) {
+                        continue;
+                    }
+                    try {
+                        files.add(new File(url.toURI()));
+                    } catch (URISyntaxException | IllegalArgumentException e) {
+                        files.add(new File(url.getPath()));
+                    }
+                }
+            }
+        }
+        for (String path : System.getProperty("java.class.path", "").split(File.pathSeparator)) {
+            if (!StringUtil.isBlank(path)) {
+                files.add(new File(path));
+            }
+        }
+        files.removeIf(file -> !file.exists());
+
+        List<File> current = new ArrayList<>(files);
+        if (current.equals(classPath)) {
+            return;
+        }
+
+        fileManager.getStandardFileManager().setLocation(StandardLocation.CLASS_PATH, current);
+        classPath = current;
+        logger.debug("Set in-process compiler classpath with {} entries.", current.size());
+    }
+
+    private static long cost(long begin) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) [2023] [liuguangsheng]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.liuguangsheng.galois.service.compiler;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 编译输出保留在内存中的JavaFileManager，源码与依赖仍由底层的StandardJavaFileManager读取。
+ * 同一个实例在多次编译之间复用，底层缓存的classpath索引无需重建。
+ * <p>
+ * 每个类最近一次编译成功的字节码也保留下来，后续编译从classpath查找依赖时优先使用，除非磁盘上的class文件更新，
+ * 这样先修改A增加方法、再修改B调用它时，B不会因为磁盘上仍是旧的A.class而编译失败
+ *
+ * @author liuguangsheng
+ * @since 2.0.1
+ */
+class MemoryJavaFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+
+    private final Map<String, byte[]> outputs = new LinkedHashMap<>(8);
+    private final Map<String, MemoryInputClass> compiledClasses = new ConcurrentHashMap<>(16);
+
+    /**
+     * Instantiates a new Memory java file manager.
+     *
+     * @param fileManager the file manager
+     */
+    MemoryJavaFileManager(StandardJavaFileManager fileManager) {
+        super(fileManager);
+    }
+
+    /**
+     * 取出上一次编译输出的全部类，并清空
+     *
+     * @return 类名到字节码
+     */
+    Map<String, byte[]> takeOutputs() {
+        Map<String, byte[]> result = new LinkedHashMap<>(outputs);
+        outputs.clear();
+        return result;
+    }
+
+    /**
+     * 保留编译成功的类，作为之后编译的依赖
+     *
+     * @param classes 类名到字节码
+     */
+    void retain(Map<String, byte[]> classes) {
+        long now = System.currentTimeMillis();
+        classes.forEach((className, bytes) -> compiledClasses.put(className,
+                new MemoryInputClass(className, bytes, now)));
+    }
+
+    @Override
+    public Iterable<JavaFileObject> list(Location location, String packageName, Set<JavaFileObject.Kind> kinds,
+                                         boolean recurse) throws IOException {
+        Iterable<JavaFileObject> files = super.list(location, packageName, kinds, recurse);
+        if (location != StandardLocation.CLASS_PATH || !kinds.contains(JavaFileObject.Kind.CLASS)
+                || compiledClasses.isEmpty()) {
+            return files;
+        }
+
+        List<JavaFileObject> result = new ArrayList<>();
+        Set<String> listed = new HashSet<>();
+        for (JavaFileObject file : files) {
+            String className = file.getKind() == JavaFileObject.Kind.CLASS ? inferBinaryName(location, file) : null;
+            MemoryInputClass compiled = className == null ? null : compiledClasses.get(className);
+            listed.add(className);
+            // IDE在进程内编译之后重新构建时，磁盘上的class文件更新
+            result.add(compiled != null && compiled.getLastModified() >= file.getLastModified() ? compiled : file);
+        }
+
+        // 磁盘上还没有的类，如新增的嵌套类
+        for (MemoryInputClass compiled : compiledClasses.values()) {
+            if (!listed.contains(compiled.className) && compiled.inPackage(packageName, recurse)) {
+                result.add(compiled);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String inferBinaryName(Location location, JavaFileObject file) {
+        if (file instanceof MemoryInputClass) {
+            return ((MemoryInputClass) file).className;
+        }
+        return super.inferBinaryName(location, file);
+    }
+
+    /**
+     * Gets standard file manager.
+     *
+     * @return the standard file manager
+     */
+    StandardJavaFileManager getStandardFileManager() {
+        return fileManager;
+    }
+
+    @Override
+    public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind,
+                                               FileObject sibling) {
+        return new MemoryClassFile(className, kind);
+    }
+
+    private static class MemoryInputClass extends SimpleJavaFileObject {
+
+        private final String className;
+        private final byte[] bytes;
+        private final long lastModified;
+
+        private MemoryInputClass(String className, byte[] bytes, long lastModified) {
+            super(URI.create("mem:///" + className.replace('.', '/') + Kind.CLASS.extension), Kind.CLASS);
+            this.className = className;
+            this.bytes = bytes;
+            this.lastModified = lastModified;
+        }
+
+        private boolean inPackage(String packageName, boolean recurse) {
+            int index = className.lastIndexOf('.');
+            String classPackage = index < 0 ? "" : className.substring(0, index);
+            return classPackage.equals(packageName)
+                    || recurse && (packageName.isEmpty() || classPackage.startsWith(packageName + "."));
+        }
+
+        @Override
+        public InputStream openInputStream() {
+            return new ByteArrayInputStream(bytes);
+        }
+
+        @Override
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+
+    private class MemoryClassFile extends SimpleJavaFileObject {
+
+        private final String className;
+
+        private MemoryClassFile(String className, Kind kind) {
+            super(URI.create("mem:///" + className.replace('.', '/') + kind.extension), kind);
+            this.className = className;
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            return new ByteArrayOutputStream() {
+                @Override
+                public void close() {
+                    outputs.put(className, toByteArray());
+                }
+            };
+        }
+    }
+}
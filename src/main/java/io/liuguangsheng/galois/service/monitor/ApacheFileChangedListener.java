@@ -34,10 +34,10 @@ import java.io.File;
  * @since 1.0.0
  **/
 public class ApacheFileChangedListener implements FileAlterationListener {
-    private final FileChangedListener listener;
+    private final FileWatchService watchService;
 
-    public ApacheFileChangedListener(FileChangedListener listener) {
-        this.listener = listener;
+    public ApacheFileChangedListener(FileWatchService watchService) {
+        this.watchService = watchService;
     }
 
     /**
@@ -77,8 +77,7 @@ public class ApacheFileChangedListener implements FileAlterationListener {
      */
     @Override
     public void onFileCreate(File file) {
-        if (listener.isSuitable(file))
-            listener.createdHandle(file);
+        watchService.fileChanged(file, FileChangedEvent.Type.CREATED);
     }
 
     /**
@@ -86,8 +85,7 @@ public class ApacheFileChangedListener implements FileAlterationListener {
      */
     @Override
     public void onFileChange(File file) {
-        if (listener.isSuitable(file))
-            listener.modifiedHandle(file);
+        watchService.fileChanged(file, FileChangedEvent.Type.MODIFIED);
     }
 
     /**
@@ -95,8 +93,7 @@ public class ApacheFileChangedListener implements FileAlterationListener {
      */
     @Override
     public void onFileDelete(File file) {
-        if (listener.isSuitable(file))
-            listener.deletedHandle(file);
+        watchService.fileChanged(file, FileChangedEvent.Type.DELETED);
     }
 
     /**
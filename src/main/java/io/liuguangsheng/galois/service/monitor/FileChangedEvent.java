@@ -0,0 +1,112 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) [2023] [liuguangsheng]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.liuguangsheng.galois.service.monitor;
+
+import java.io.File;
+import java.util.Objects;
+
+/**
+ * 合并后的文件变更事件
+ *
+ * @author liuguangsheng
+ * @since 2.0.1
+ */
+public class FileChangedEvent {
+
+    private final File file;
+    private final Type type;
+
+    /**
+     * Instantiates a new File changed event.
+     *
+     * @param file the file
+     * @param type the type
+     */
+    public FileChangedEvent(File file, Type type) {
+        this.file = Objects.requireNonNull(file);
+        this.type = Objects.requireNonNull(type);
+    }
+
+    /**
+     * Gets file.
+     *
+     * @return the file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Gets type.
+     *
+     * @return the type
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * 与同一文件上随后发生的事件合并，返回null表示两者相互抵消
+     *
+     * @param next 随后发生的事件类型
+     * @return the merged event
+     */
+    public FileChangedEvent merge(Type next) {
+        switch (type) {
+            case CREATED:
+                // 新建后被删除的文件对监听器而言从未出现过
+                return next == Type.DELETED ? null : this;
+            case MODIFIED:
+                return next == Type.DELETED ? new FileChangedEvent(file, Type.DELETED) : this;
+            case DELETED:
+            default:
+                // 删除后重新写入，例如编译器先清理再输出，视为修改
+                return next == Type.DELETED ? this : new FileChangedEvent(file, Type.MODIFIED);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + file;
+    }
+
+    /**
+     * The enum Type.
+     */
+    public enum Type {
+        /**
+         * Created type.
+         */
+        CREATED,
+        /**
+         * Modified type.
+         */
+        MODIFIED,
+        /**
+         * Deleted type.
+         */
+        DELETED
+    }
+}
@@ -24,7 +24,12 @@
 
 package io.liuguangsheng.galois.service.monitor;
 
+import io.liuguangsheng.galois.constants.FileType;
+
 import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 
 /**
  * file monitor service interface
@@ -35,7 +40,35 @@ import java.io.File;
 public interface FileChangedListener {
 
     /**
-     * is listener useful for this file object
+     * 关心的文件类型，事件按扩展名直接路由到对应监听器，为空时接收所有类型
+     *
+     * @return the file types
+     */
+    default Set<FileType> getFileTypes() {
+        return Collections.emptySet();
+    }
+
+    /**
+     * 关心的路径模式，语法同galois.includes，为空时不限制路径
+     *
+     * @return the path patterns
+     */
+    default List<String> getPathPatterns() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * {@link #isSuitable(File)}的结果是否可以按文件路径与修改时间缓存，检查文件内容的监听器应返回true
+     *
+     * @return the boolean
+     */
+    default boolean isSuitableCacheable() {
+        return false;
+    }
+
+    /**
+     * is listener useful for this file object, only invoked for files matching {@link #getFileTypes()} and
+     * {@link #getPathPatterns()}
      *
      * @param file the changed file
      * @return is the listener monitor this file change
@@ -62,4 +95,26 @@ public interface FileChangedListener {
      * @param file the changed file
      */
     void deletedHandle(File file);
+
+    /**
+     * 处理一批合并后的文件变更，批次中的文件均已通过{@link #isSuitable(File)}，同一文件只出现一次
+     *
+     * @param events the events
+     */
+    default void batchHandle(List<FileChangedEvent> events) {
+        for (FileChangedEvent event : events) {
+            switch (event.getType()) {
+                case CREATED:
+                    createdHandle(event.getFile());
+                    break;
+                case MODIFIED:
+                    modifiedHandle(event.getFile());
+                    break;
+                case DELETED:
+                    deletedHandle(event.getFile());
+                    break;
+                default:
+            }
+        }
+    }
 }
@@ -0,0 +1,153 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) [2023] [liuguangsheng]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.liuguangsheng.galois.service.monitor;
+
+import io.liuguangsheng.galois.conf.GlobalConfiguration;
+import io.liuguangsheng.galois.utils.GaloisLog;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static io.liuguangsheng.galois.constants.ConfConstant.FILE_WATCH_MAX_DELAY;
+import static io.liuguangsheng.galois.constants.ConfConstant.FILE_WATCH_MAX_QUIET_PERIOD;
+import static io.liuguangsheng.galois.constants.ConfConstant.FILE_WATCH_QUIET_PERIOD;
+
+/**
+ * 文件事件合并器，在静默期内按路径合并重复事件，待一次批量写入（如mvn compile）平息后整批交给监听器。
+ * 静默期随本批次的原始事件数按对数增长，上限为max-quiet-period；持续有事件时最迟在max-delay后强制下发
+ *
+ * @author liuguangsheng
+ * @since 2.0.1
+ */
+class FileEventCoalescer {
+
+    private static final Logger logger = new GaloisLog(FileEventCoalescer.class);
+    private static final GlobalConfiguration config = GlobalConfiguration.getInstance();
+    private final long quietPeriod = Math.max(0, config.getLong(FILE_WATCH_QUIET_PERIOD, 100));
+    private final long maxQuietPeriod = Math.max(quietPeriod, config.getLong(FILE_WATCH_MAX_QUIET_PERIOD, 1000));
+    private final long maxDelay = Math.max(maxQuietPeriod, config.getLong(FILE_WATCH_MAX_DELAY, 5000));
+    private final Map<String, FileChangedEvent> pending = new LinkedHashMap<>(64);
+    private final Consumer<List<FileChangedEvent>> dispatcher;
+    private long firstEventTime;
+    private long lastEventTime;
+    private int rawCount;
+
+    /**
+     * Instantiates a new File event coalescer.
+     *
+     * @param dispatcher 接收合并后批次的回调，在合并线程中执行
+     */
+    FileEventCoalescer(Consumer<List<FileChangedEvent>> dispatcher) {
+        this.dispatcher = dispatcher;
+        Thread thread = new Thread(this::run, "galois-file-coalescer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 接收一个原始文件事件
+     *
+     * @param file the file
+     * @param type the type
+     */
+    void offer(File file, FileChangedEvent.Type type) {
+        String path = file.getAbsolutePath();
+        long now = System.currentTimeMillis();
+
+        synchronized (pending) {
+            if (pending.isEmpty()) {
+                firstEventTime = now;
+                rawCount = 0;
+            }
+
+            FileChangedEvent previous = pending.remove(path);
+            FileChangedEvent merged = previous == null ? new FileChangedEvent(file, type) : previous.merge(type);
+            if (merged != null) {
+                pending.put(path, merged);
+            }
+
+            lastEventTime = now;
+            rawCount++;
+            pending.notifyAll();
+        }
+    }
+
+    /**
+     * 当前批次的静默期，单个文件变更时为quiet-period，每翻一倍增加一个quiet-period
+     *
+     * @return the quiet period in ms
+     */
+    private long currentQuietPeriod() {
+        int log2 = 31 - Integer.numberOfLeadingZeros(Math.max(1, rawCount));
+        return Math.min(maxQuietPeriod, quietPeriod * (1 + log2));
+    }
+
+    private void run() {
+        while (true) {
+            List<FileChangedEvent> batch;
+            int raw;
+            long waited;
+
+            try {
+                synchronized (pending) {
+                    while (pending.isEmpty()) {
+                        pending.wait();
+                    }
+
+                    long now = System.currentTimeMillis();
+                    long deadline = Math.min(lastEventTime + currentQuietPeriod(), firstEventTime + maxDelay);
+                    if (now < deadline) {
+                        pending.wait(deadline - now);
+                        continue;
+                    }
+
+                    batch = new ArrayList<>(pending.values());
+                    raw = rawCount;
+                    waited = now - firstEventTime;
+                    pending.clear();
+                }
+            } catch (InterruptedException e) {
+                logger.warn("FileEventCoalescer stopped.");
+                return;
+            }
+
+            if (logger.isDebugEnabled()) {
+                logger.debug("Dispatch {} file events coalesced from {} raw events after {} ms.", batch.size(), raw,
+                        waited);
+            }
+
+            try {
+                dispatcher.accept(batch);
+            } catch (Throwable e) {
+                logger.error("Dispatch file events failed.", e);
+            }
+        }
+    }
+}
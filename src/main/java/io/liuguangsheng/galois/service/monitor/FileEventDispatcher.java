@@ -0,0 +1,245 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) [2023] [liuguangsheng]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.liuguangsheng.galois.service.monitor;
+
+import io.liuguangsheng.galois.conf.GlobalConfiguration;
+import io.liuguangsheng.galois.constants.FileType;
+import io.liuguangsheng.galois.utils.GaloisLog;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiPredicate;
+
+import static io.liuguangsheng.galois.constants.ConfConstant.FILE_WATCH_DISPATCH_QUEUE_SIZE;
+import static io.liuguangsheng.galois.constants.ConfConstant.FILE_WATCH_DISPATCH_THREADS;
+import static io.liuguangsheng.galois.constants.Constant.COMMA;
+
+/**
+ * 文件事件分发器，将合并后的批次放入有界队列，由少量工作线程交给监听器处理，使文件监听不再被慢的重载拖住。
+ * 每个监听器固定分配到一条队列，关心相同文件类型的监听器共用一条队列，因此同一文件的事件严格按顺序处理，
+ * 例如SpringBeanListener与MyBatisMapperClassListener不会并发重定义同一批class文件；
+ * 队列满时提交方阻塞等待，期间新的文件事件继续在合并器中合并。进程退出时输出各队列的深度与等待时间
+ *
+ * @author liuguangsheng
+ * @since 2.0.1
+ */
+class FileEventDispatcher {
+
+    private static final Logger logger = new GaloisLog(FileEventDispatcher.class);
+    private static final GlobalConfiguration config = GlobalConfiguration.getInstance();
+    private static final long SLOW_WAIT_MILLIS = 1000;
+    private final Map<FileChangedListener, Lane> laneOfListener = new IdentityHashMap<>();
+    private final Map<FileType, Lane> laneOfType = new EnumMap<>(FileType.class);
+    private final Lane[] lanes;
+    private int nextLane;
+    private volatile boolean submitted;
+
+    /**
+     * Instantiates a new File event dispatcher.
+     *
+     * @param suitability 在工作线程中检查监听器是否处理该文件
+     */
+    FileEventDispatcher(BiPredicate<FileChangedListener, File> suitability) {
+        int threads = Math.max(1, config.getInt(FILE_WATCH_DISPATCH_THREADS, 2));
+        int queueSize = Math.max(1, config.getInt(FILE_WATCH_DISPATCH_QUEUE_SIZE, 64));
+
+        lanes = new Lane[threads];
+        for (int i = 0; i < threads; i++) {
+            lanes[i] = new Lane(i, queueSize, suitability);
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (submitted) {
+                logger.info("File event dispatcher stopped, {}.", summary());
+            }
+        }, "galois-file-dispatcher-summary"));
+    }
+
+    /**
+     * 提交一批事件给监听器，队列已满时阻塞直到有空位
+     *
+     * @param listener the listener
+     * @param events   该监听器的候选事件
+     * @throws InterruptedException the interrupted exception
+     */
+    void submit(FileChangedListener listener, List<FileChangedEvent> events) throws InterruptedException {
+        Lane lane = laneOf(listener);
+        Task task = new Task(listener, events);
+        submitted = true;
+
+        if (lane.queue.offer(task)) {
+            lane.updateMaxDepth();
+            return;
+        }
+
+        lane.blocked.increment();
+        logger.warn("Dispatch queue {} is full with {} batches, wait for listeners to catch up.", lane.name,
+                lane.queue.size());
+        long begin = System.nanoTime();
+        lane.queue.put(task);
+        lane.blockedNanos.add(System.nanoTime() - begin);
+        lane.updateMaxDepth();
+    }
+
+    /**
+     * 各队列的深度与等待时间
+     *
+     * @return the summary
+     */
+    String summary() {
+        List<String> result = new ArrayList<>(lanes.length);
+        for (Lane lane : lanes) {
+            result.add(lane.summary());
+        }
+        return String.join(COMMA, result);
+    }
+
+    private synchronized Lane laneOf(FileChangedListener listener) {
+        Lane lane = laneOfListener.get(listener);
+        if (lane != null) {
+            return lane;
+        }
+
+        // 已有监听器关心其中某个文件类型时沿用它的队列，否则轮流分配新队列
+        for (FileType fileType : listener.getFileTypes()) {
+            lane = laneOfType.get(fileType);
+            if (lane != null) {
+                break;
+            }
+        }
+        if (lane == null) {
+            lane = lanes[nextLane++ % lanes.length];
+        }
+
+        for (FileType fileType : listener.getFileTypes()) {
+            laneOfType.putIfAbsent(fileType, lane);
+        }
+        laneOfListener.put(listener, lane);
+        return lane;
+    }
+
+    private static class Task {
+        private final FileChangedListener listener;
+        private final List<FileChangedEvent> events;
+        private final long enqueueTime = System.nanoTime();
+
+        private Task(FileChangedListener listener, List<FileChangedEvent> events) {
+            this.listener = listener;
+            this.events = events;
+        }
+    }
+
+    private static class Lane {
+        private final String name;
+        private final int capacity;
+        private final BlockingQueue<Task> queue;
+        private final BiPredicate<FileChangedListener, File> suitability;
+        private final LongAdder handled = new LongAdder();
+        private final LongAdder blocked = new LongAdder();
+        private final LongAdder blockedNanos = new LongAdder();
+        private final LongAdder waitNanos = new LongAdder();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+        private final AtomicLong maxDepth = new AtomicLong();
+
+        private Lane(int index, int capacity, BiPredicate<FileChangedListener, File> suitability) {
+            this.name = "galois-file-dispatcher-" + index;
+            this.capacity = capacity;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.suitability = suitability;
+
+            Thread worker = new Thread(this::run, name);
+            worker.setDaemon(true);
+            worker.start();
+        }
+
+        private void updateMaxDepth() {
+            maxDepth.accumulateAndGet(queue.size(), Math::max);
+        }
+
+        private void run() {
+            while (true) {
+                Task task;
+                try {
+                    task = queue.take();
+                } catch (InterruptedException e) {
+                    logger.warn("{} stopped.", name);
+                    return;
+                }
+
+                long wait = System.nanoTime() - task.enqueueTime;
+                waitNanos.add(wait);
+                maxWaitNanos.accumulateAndGet(wait, Math::max);
+                if (TimeUnit.NANOSECONDS.toMillis(wait) > SLOW_WAIT_MILLIS) {
+                    logger.warn("{} falls behind, batch for {} waited {} ms, {}.", name, task.listener,
+                            TimeUnit.NANOSECONDS.toMillis(wait), summary());
+                }
+
+                handle(task);
+                handled.increment();
+
+                if (logger.isDebugEnabled()) {
+                    logger.debug("{} handled {} events for {}, {}.", name, task.events.size(), task.listener,
+                            summary());
+                }
+            }
+        }
+
+        private void handle(Task task) {
+            try {
+                List<FileChangedEvent> suitable = new ArrayList<>(task.events.size());
+                for (FileChangedEvent event : task.events) {
+                    if (suitability.test(task.listener, event.getFile())) {
+                        suitable.add(event);
+                    }
+                }
+
+                if (!suitable.isEmpty()) {
+                    task.listener.batchHandle(suitable);
+                }
+            } catch (Throwable e) {
+                logger.error("Listener {} handle file events failed.", task.listener, e);
+            }
+        }
+
+        private String summary() {
+            long count = handled.sum();
+            long avgWait = count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(waitNanos.sum() / count);
+            return String.format("%s depth %d/%d (max %d), handled %d, wait avg %d ms max %d ms, blocked %d times " +
+                            "%d ms", name, queue.size(), capacity, maxDepth.get(), count, avgWait,
+                    TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get()), blocked.sum(),
+                    TimeUnit.NANOSECONDS.toMillis(blockedNanos.sum()));
+        }
+    }
+}
@@ -25,10 +25,21 @@
 package io.liuguangsheng.galois.service.monitor;
 
 import io.liuguangsheng.galois.conf.GlobalConfiguration;
+import io.liuguangsheng.galois.utils.GaloisLog;
+import io.liuguangsheng.galois.utils.StringUtil;
+import org.slf4j.Logger;
 
+import java.io.File;
+import java.io.FileFilter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
+import static io.liuguangsheng.galois.constants.ConfConstant.FILE_WATCH_SERVICE;
+import static io.liuguangsheng.galois.constants.Constant.COMMA;
+import static io.liuguangsheng.galois.constants.Constant.SEMICOLON;
 import static io.liuguangsheng.galois.constants.Constant.USER_DIR;
 
 /**
@@ -36,16 +47,133 @@ import static io.liuguangsheng.galois.constants.Constant.USER_DIR;
  * @since 1.0.0
  **/
 public abstract class FileWatchService {
+    private static final Logger logger = new GaloisLog(FileWatchService.class);
+    private static final String GALOIS_INCLUDES = "galois.includes";
+    private static final String GALOIS_EXCLUDES = "galois.excludes";
+    /**
+     * 默认排除的目录，注意target等编译输出目录不能排除，class文件的变动依赖它们
+     */
+    private static final List<String> DEFAULT_EXCLUDES = Arrays.asList(".git", ".svn", ".idea", "node_modules");
+    /**
+     * 基于inotify等系统通知的递归监听，默认实现
+     */
+    public static final String RECURSIVE = "recursive";
+    /**
+     * 基于commons-io的轮询监听
+     */
+    public static final String APACHE = "apache";
+    /**
+     * 仅Windows支持递归的JDK监听
+     */
+    public static final String JDK = "jdk";
+
     protected static final GlobalConfiguration config = GlobalConfiguration.getInstance();
     protected final String rootPath = config.getStr(USER_DIR);
     protected static final List<FileChangedListener> listeners = new ArrayList<>();
+    private volatile ListenerRouter router = ListenerRouter.build(Collections.emptyList(), rootPath);
+    private final FileEventDispatcher dispatcher = new FileEventDispatcher(
+            (listener, file) -> router.isSuitable(listener, file));
+    private final FileEventCoalescer coalescer = new FileEventCoalescer(this::dispatch);
+
+    /**
+     * 根据配置项file-watch.service获取文件监听服务
+     *
+     * @return the file watch service
+     */
+    @SuppressWarnings("deprecation")
+    public static FileWatchService getConfiguredInstance() {
+        String type = config.getStr(FILE_WATCH_SERVICE, RECURSIVE).trim();
+
+        switch (type.toLowerCase()) {
+            case RECURSIVE:
+                return RecursiveFileWatchService.getInstance();
+            case APACHE:
+                return ApacheFileWatchService.getInstance();
+            case JDK:
+                return JdkFileWatchService.getInstance();
+            default:
+                logger.warn("Unknown file watch service [{}], use {} instead.", type, RECURSIVE);
+                return RecursiveFileWatchService.getInstance();
+        }
+    }
 
     public abstract void start();
 
-    public void registerListener(FileChangedListener listener) {
+    public synchronized void registerListener(FileChangedListener listener) {
         if (listener != null) {
             listeners.add(listener);
+            router = ListenerRouter.build(listeners, rootPath);
+        }
+    }
+
+    /**
+     * 接收监听实现发现的原始文件事件，合并后批量交给监听器
+     *
+     * @param file the file
+     * @param type the type
+     */
+    protected void fileChanged(File file, FileChangedEvent.Type type) {
+        coalescer.offer(file, type);
+    }
+
+    /**
+     * 将合并后的一批事件按扩展名与路径路由后，提交到各监听器的分发队列
+     *
+     * @param events the events
+     */
+    private void dispatch(List<FileChangedEvent> events) {
+        try {
+            for (Map.Entry<FileChangedListener, List<FileChangedEvent>> entry : router.route(events).entrySet()) {
+                dispatcher.submit(entry.getKey(), entry.getValue());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 根据galois.includes与galois.excludes构建路径过滤器，目录与文件共用。两者均在此处一次性编译为路径前缀树，
+     * 排除的目录直接剪枝，不再遍历其子树
+     *
+     * @return the file filter
+     */
+    protected FileFilter getFileFilter() {
+        List<String> excludePaths = new ArrayList<>(DEFAULT_EXCLUDES);
+        List<String> includePaths = new ArrayList<>();
+
+        String includeProperty = System.getProperty(GALOIS_INCLUDES);
+        String excludeProperty = System.getProperty(GALOIS_EXCLUDES);
+
+        if (StringUtil.isNotBlank(excludeProperty)) {
+            excludePaths.addAll(Arrays.asList(excludeProperty.trim().split(SEMICOLON)));
+        }
+
+        if (StringUtil.isNotBlank(includeProperty)) {
+            includePaths.addAll(Arrays.asList(includeProperty.trim().split(SEMICOLON)));
         }
+
+        PathPatternTrie excludes = PathPatternTrie.compile(excludePaths, rootPath);
+        PathPatternTrie includes = PathPatternTrie.compile(includePaths, rootPath);
+
+        FileFilter fileFilter = pathname -> {
+            String cur = pathname.getAbsolutePath();
+
+            if (excludes.match(cur) == PathPatternTrie.Match.MATCHED) {
+                return false;
+            }
+            if (includes.isEmpty()) {
+                return true;
+            }
+
+            // 尚未进入include路径的目录需要保留，以便继续向下找到include路径
+            PathPatternTrie.Match match = includes.match(cur);
+            return match == PathPatternTrie.Match.MATCHED
+                    || match == PathPatternTrie.Match.PARTIAL && pathname.isDirectory();
+        };
+
+        logger.info("include path [{}], exclude path [{}].", String.join(COMMA, includePaths), String.join(COMMA,
+                excludePaths));
+        return fileFilter;
     }
 
 }
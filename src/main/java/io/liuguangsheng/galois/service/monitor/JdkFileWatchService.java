@@ -117,13 +117,11 @@ public class JdkFileWatchService extends FileWatchService {
                             continue;
                         }
 
-                        listeners.stream().filter(listener -> listener.isSuitable(file)).forEach(listener -> {
-                            if (kind == ENTRY_CREATE) {
-                                listener.createdHandle(file);
-                            } else if (kind == ENTRY_MODIFY) {
-                                listener.modifiedHandle(file);
-                            }
-                        });
+                        if (kind == ENTRY_CREATE) {
+                            fileChanged(file, FileChangedEvent.Type.CREATED);
+                        } else if (kind == ENTRY_MODIFY) {
+                            fileChanged(file, FileChangedEvent.Type.MODIFIED);
+                        }
                     }
 
                     watchKey.reset();
@@ -0,0 +1,175 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) [2023] [liuguangsheng]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.liuguangsheng.galois.service.monitor;
+
+import io.liuguangsheng.galois.constants.FileType;
+import io.liuguangsheng.galois.utils.FileUtil;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按扩展名索引的监听器路由表，文件事件只需一次map查找即可得到候选监听器，
+ * 候选监听器声明了路径模式时再做路径匹配，最后才调用其{@link FileChangedListener#isSuitable(File)}
+ *
+ * @author liuguangsheng
+ * @since 2.0.1
+ */
+class ListenerRouter {
+
+    private final Map<String, List<Route>> routesByType = new HashMap<>(8);
+    private final List<Route> anyTypeRoutes = new ArrayList<>();
+    private final Map<FileChangedListener, Route> routeOfListener = new IdentityHashMap<>();
+
+    private ListenerRouter(Collection<FileChangedListener> listeners, String rootPath) {
+        for (FileChangedListener listener : listeners) {
+            Route route = new Route(listener, rootPath);
+            routeOfListener.put(listener, route);
+
+            if (listener.getFileTypes().isEmpty()) {
+                anyTypeRoutes.add(route);
+                continue;
+            }
+
+            for (FileType fileType : listener.getFileTypes()) {
+                routesByType.computeIfAbsent(fileType.getFileType(), key -> new ArrayList<>(2)).add(route);
+            }
+        }
+    }
+
+    /**
+     * 按监听器注册顺序构建路由表
+     *
+     * @param listeners the listeners
+     * @param rootPath  路径模式中相对路径的基准目录
+     * @return the listener router
+     */
+    static ListenerRouter build(Collection<FileChangedListener> listeners, String rootPath) {
+        return new ListenerRouter(listeners, rootPath);
+    }
+
+    /**
+     * 按扩展名与路径模式为每个监听器挑出候选事件，不检查文件内容
+     *
+     * @param events the events
+     * @return 监听器及其候选事件
+     */
+    Map<FileChangedListener, List<FileChangedEvent>> route(List<FileChangedEvent> events) {
+        Map<FileChangedListener, List<FileChangedEvent>> result = new LinkedHashMap<>(8);
+
+        for (FileChangedEvent event : events) {
+            File file = event.getFile();
+            String path = file.getAbsolutePath();
+
+            for (Route route : routesByType.getOrDefault(FileUtil.getFileType(file), Collections.emptyList())) {
+                route.collect(path, event, result);
+            }
+            for (Route route : anyTypeRoutes) {
+                route.collect(path, event, result);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * 检查候选文件的内容，监听器允许时按路径与修改时间缓存结果
+     *
+     * @param listener the listener
+     * @param file     the file
+     * @return the boolean
+     */
+    boolean isSuitable(FileChangedListener listener, File file) {
+        Route route = routeOfListener.get(listener);
+        return route == null ? listener.isSuitable(file) : route.isSuitable(file);
+    }
+
+    private static class Route {
+        private final FileChangedListener listener;
+        private final PathPatternTrie pathPatterns;
+        private final Map<String, Verdict> verdicts;
+
+        private Route(FileChangedListener listener, String rootPath) {
+            this.listener = listener;
+            this.pathPatterns = PathPatternTrie.compile(listener.getPathPatterns(), rootPath);
+            this.verdicts = listener.isSuitableCacheable() ? new ConcurrentHashMap<>(64) : null;
+        }
+
+        private void collect(String path, FileChangedEvent event,
+                             Map<FileChangedListener, List<FileChangedEvent>> result) {
+            if (!pathPatterns.isEmpty() && pathPatterns.match(path) != PathPatternTrie.Match.MATCHED) {
+                return;
+            }
+
+            result.computeIfAbsent(listener, key -> new ArrayList<>()).add(event);
+        }
+
+        private boolean isSuitable(File file) {
+            if (verdicts == null) {
+                return listener.isSuitable(file);
+            }
+
+            String path = file.getAbsolutePath();
+            long lastModified = file.lastModified();
+            long length = file.length();
+            Verdict verdict = verdicts.get(path);
+
+            // 已删除的文件无法再检查内容，沿用删除前的结论
+            if (verdict != null && (lastModified == 0 || verdict.isFresh(lastModified, length))) {
+                return verdict.suitable;
+            }
+
+            boolean suitable = listener.isSuitable(file);
+            if (lastModified != 0) {
+                verdicts.put(path, new Verdict(lastModified, length, suitable));
+            }
+            return suitable;
+        }
+    }
+
+    private static class Verdict {
+        private final long lastModified;
+        private final long length;
+        private final boolean suitable;
+
+        private Verdict(long lastModified, long length, boolean suitable) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.suitable = suitable;
+        }
+
+        private boolean isFresh(long lastModified, long length) {
+            return this.lastModified == lastModified && this.length == length;
+        }
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) [2023] [liuguangsheng]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.liuguangsheng.galois.service.monitor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * 按路径段组织的路径模式前缀树，模式只在启动时编译一次，匹配时每个路径段只走一遍树。
+ * <ul>
+ *     <li>绝对路径按原样匹配，相对路径相对于工程根目录</li>
+ *     <li>不含分隔符的名称（如node_modules）匹配任意深度的同名文件或目录</li>
+ *     <li>段内支持*与?通配符，**匹配任意层目录</li>
+ * </ul>
+ * 模式匹配到某个目录时，该目录下的整个子树都算匹配。不含通配符的名称只做逐段的哈希查找，不进入树；
+ * 匹配时按节点编号以位图记录当前状态，不为每个路径段创建集合
+ *
+ * @author liuguangsheng
+ * @since 2.0.1
+ */
+class PathPatternTrie {
+
+    private static final String DOUBLE_STAR = "**";
+    private static final Pattern SEPARATORS = Pattern.compile("[/\\\\]+");
+    private static final boolean IGNORE_CASE = File.separatorChar == '\\';
+    private final List<Node> nodes = new ArrayList<>();
+    private final Node root = newNode();
+    /**
+     * 不含分隔符与通配符的名称，匹配任意深度的同名文件或目录
+     */
+    private final Set<String> names = new HashSet<>();
+    private final boolean empty;
+    private final boolean treeEmpty;
+
+    private PathPatternTrie(Collection<String> patterns, String basePath) {
+        List<String> base = split(basePath);
+
+        for (String pattern : patterns) {
+            String trimmed = pattern.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+
+            List<String> segments = new ArrayList<>();
+            if (trimmed.indexOf('/') < 0 && trimmed.indexOf('\\') < 0) {
+                if (!isGlob(trimmed)) {
+                    names.add(normalize(trimmed));
+                    continue;
+                }
+                segments.add(DOUBLE_STAR);
+            } else if (!new File(trimmed).isAbsolute() && !trimmed.startsWith("/")) {
+                segments.addAll(base);
+            }
+            segments.addAll(split(trimmed));
+
+            insert(segments);
+        }
+
+        for (Node node : nodes) {
+            node.closure = closure(node);
+        }
+        treeEmpty = root.isLeaf();
+        empty = treeEmpty && names.isEmpty();
+    }
+
+    /**
+     * 编译路径模式
+     *
+     * @param patterns 路径模式
+     * @param basePath 相对路径的基准目录
+     * @return the path pattern trie
+     */
+    static PathPatternTrie compile(Collection<String> patterns, String basePath) {
+        return new PathPatternTrie(patterns, basePath);
+    }
+
+    /**
+     * 是否没有任何模式
+     *
+     * @return the boolean
+     */
+    boolean isEmpty() {
+        return empty;
+    }
+
+    /**
+     * 匹配路径
+     *
+     * @param path 绝对路径
+     * @return the match
+     */
+    Match match(String path) {
+        if (empty) {
+            return Match.NONE;
+        }
+
+        long[] states = null;
+        long[] next = null;
+        if (!treeEmpty) {
+            states = new long[(nodes.size() + 63) >>> 6];
+            next = new long[states.length];
+            for (int id : root.closure) {
+                set(states, id);
+            }
+        }
+
+        boolean alive = !treeEmpty;
+        int length = path.length();
+        for (int begin = 0, end; begin < length; begin = end + 1) {
+            end = begin;
+            while (end < length && isSeparator(path.charAt(end))) {
+                end++;
+            }
+            begin = end;
+            while (end < length && !isSeparator(path.charAt(end))) {
+                end++;
+            }
+            if (begin == end || end - begin == 1 && path.charAt(begin) == '.') {
+                continue;
+            }
+
+            String key = normalize(path.substring(begin, end));
+            if (names.contains(key)) {
+                return Match.MATCHED;
+            }
+            if (!alive) {
+                continue;
+            }
+
+            Arrays.fill(next, 0L);
+            alive = false;
+            for (int word = 0; word < states.length; word++) {
+                for (long bits = states[word]; bits != 0; bits &= bits - 1) {
+                    Node node = nodes.get((word << 6) + Long.numberOfTrailingZeros(bits));
+                    if (node.step(key, next)) {
+                        return Match.MATCHED;
+                    }
+                }
+            }
+            for (int word = 0; word < next.length; word++) {
+                alive |= next[word] != 0;
+            }
+
+            long[] swap = states;
+            states = next;
+            next = swap;
+        }
+
+        if (alive) {
+            for (int word = 0; word < states.length; word++) {
+                for (long bits = states[word]; bits != 0; bits &= bits - 1) {
+                    if (nodes.get((word << 6) + Long.numberOfTrailingZeros(bits)).terminal) {
+                        return Match.MATCHED;
+                    }
+                }
+            }
+            return Match.PARTIAL;
+        }
+
+        // 名称可以出现在任意深度，下级路径仍可能命中
+        return names.isEmpty() ? Match.NONE : Match.PARTIAL;
+    }
+
+    private Node newNode() {
+        return register(new Node());
+    }
+
+    private <T extends Node> T register(T node) {
+        Node registered = node;
+        registered.id = nodes.size();
+        nodes.add(registered);
+        return node;
+    }
+
+    private void insert(List<String> segments) {
+        Node node = root;
+
+        for (String segment : segments) {
+            if (DOUBLE_STAR.equals(segment)) {
+                if (node.anyDepth == null) {
+                    node.anyDepth = newNode();
+                    node.anyDepth.selfLoop = true;
+                }
+                node = node.anyDepth;
+            } else if (isGlob(segment)) {
+                String key = normalize(segment);
+                node = node.globs.computeIfAbsent(key, k -> register(new GlobNode(toRegex(k))));
+            } else {
+                node = node.literals.computeIfAbsent(normalize(segment), k -> newNode());
+            }
+        }
+
+        node.terminal = true;
+    }
+
+    /**
+     * 进入节点：节点是模式终点时返回true，否则在next中置上节点本身及其后可以不消耗路径段直接到达的**节点
+     */
+    private static boolean enter(Node node, long[] next) {
+        if (node.terminal) {
+            return true;
+        }
+        for (int id : node.closure) {
+            set(next, id);
+        }
+        return false;
+    }
+
+    /**
+     * 节点本身加上其后可以不消耗路径段直接到达的**节点
+     */
+    private static int[] closure(Node node) {
+        List<Integer> result = new ArrayList<>(2);
+        Node cur = node;
+        while (cur != null && !result.contains(cur.id)) {
+            result.add(cur.id);
+            cur = cur.anyDepth;
+        }
+        return result.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static void set(long[] bits, int id) {
+        bits[id >>> 6] |= 1L << id;
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == '/' || c == '\\';
+    }
+
+    private static boolean isGlob(String segment) {
+        return segment.indexOf('*') >= 0 || segment.indexOf('?') >= 0;
+    }
+
+    private static List<String> split(String path) {
+        List<String> result = new ArrayList<>();
+        if (path == null) {
+            return result;
+        }
+
+        for (String segment : SEPARATORS.split(path)) {
+            if (!segment.isEmpty() && !".".equals(segment)) {
+                result.add(segment);
+            }
+        }
+        return result;
+    }
+    private static String normalize(String segment) {
+        return IGNORE_CASE ? segment.toLowerCase() : segment;
+    }
+
+    private static Pattern toRegex(String glob) {
+        StringBuilder regex = new StringBuilder(glob.length() + 8);
+        StringBuilder literal = new StringBuilder();
+
+        for (char c : glob.toCharArray()) {
+            if (c == '*' || c == '?') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '*' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    /**
+     * The enum Match.
+     */
+    enum Match {
+        /**
+         * 路径本身或其某个上级目录命中模式
+         */
+        MATCHED,
+        /**
+         * 路径尚未命中，但其下级路径可能命中
+         */
+        PARTIAL,
+        /**
+         * 路径及其下级路径都不可能命中
+         */
+        NONE
+    }
+
+    private static class Node {
+        private final Map<String, Node> literals = new HashMap<>(8);
+        private final Map<String, GlobNode> globs = new HashMap<>(4);
+        private int id;
+        private int[] closure;
+        private Node anyDepth;
+        private boolean selfLoop;
+        private boolean terminal;
+
+        private boolean isLeaf() {
+            return !terminal && literals.isEmpty() && globs.isEmpty() && anyDepth == null;
+        }
+
+        /**
+         * 消耗一个路径段，到达模式终点时返回true
+         */
+        private boolean step(String segment, long[] next) {
+            if (selfLoop && enter(this, next)) {
+                return true;
+            }
+
+            Node literal = literals.get(segment);
+            if (literal != null && enter(literal, next)) {
+                return true;
+            }
+
+            for (GlobNode glob : globs.values()) {
+                if (glob.pattern.matcher(segment).matches() && enter(glob, next)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class GlobNode extends Node {
+        private final Pattern pattern;
+
+        private GlobNode(Pattern pattern) {
+            this.pattern = pattern;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) [2023] [liuguangsheng]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.liuguangsheng.galois.service.monitor;
+
+import io.liuguangsheng.galois.utils.GaloisLog;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import static com.sun.nio.file.SensitivityWatchEventModifier.HIGH;
+import static io.liuguangsheng.galois.constants.Constant.COMMA;
+import static io.liuguangsheng.galois.constants.Constant.DOT;
+import static io.liuguangsheng.galois.constants.Constant.TILDE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * 递归文件监听服务，为根目录下的每个目录单独注册{@link WatchService}（Linux下即inotify），并跟踪新建的目录。
+ * 监听线程阻塞在{@link WatchService#take()}上，没有轮询
+ *
+ * @author liuguangsheng
+ * @since 2.0.1
+ */
+public class RecursiveFileWatchService extends FileWatchService {
+
+    private static final Logger logger = new GaloisLog(RecursiveFileWatchService.class);
+    private static final WatchEvent.Kind<?>[] KINDS = new WatchEvent.Kind[]{ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE};
+    private final Map<WatchKey, Path> watchedDirs = new ConcurrentHashMap<>(1024);
+    private WatchService watchService;
+    private FileFilter fileFilter;
+
+    private static class RecursiveFileWatchServiceHolder {
+        private static final RecursiveFileWatchService instance = new RecursiveFileWatchService();
+    }
+
+    private RecursiveFileWatchService() {
+    }
+
+    /**
+     * Gets instance.
+     *
+     * @return the instance
+     */
+    public static RecursiveFileWatchService getInstance() {
+        return RecursiveFileWatchServiceHolder.instance;
+    }
+
+    @Override
+    public void start() {
+        long begin = System.currentTimeMillis();
+
+        try {
+            fileFilter = getFileFilter();
+            watchService = FileSystems.getDefault().newWatchService();
+            registerAll(Paths.get(rootPath), false);
+        } catch (IOException e) {
+            logger.error("Start recursive file watch service failed.", e);
+            return;
+        }
+
+        List<String> listenerNames = listeners.stream().map(FileChangedListener::toString).collect(Collectors.toList());
+        String listenerNameStr = String.join(COMMA, listenerNames);
+
+        logger.info("RecursiveFileWatchService Started in path {} watching {} directories in {} ms with {} listeners " +
+                        "{}.", rootPath, watchedDirs.size(), System.currentTimeMillis() - begin, listenerNames.size(),
+                listenerNameStr);
+
+        Thread fileMonitorThread = new Thread(this::processEvents, "galois-file-watcher");
+        fileMonitorThread.setDaemon(true);
+        fileMonitorThread.start();
+    }
+
+    private void processEvents() {
+        while (true) {
+            WatchKey watchKey;
+            try {
+                watchKey = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                logger.warn("RecursiveFileWatchService stopped.");
+                return;
+            }
+
+            try {
+                Path dir = watchedDirs.get(watchKey);
+
+                for (WatchEvent<?> event : watchKey.pollEvents()) {
+                    WatchEvent.Kind<?> kind = event.kind();
+
+                    if (kind == OVERFLOW) {
+                        // 事件队列溢出时已有事件丢失，重新扫描一遍以补注册新建的目录
+                        logger.warn("File watch events overflow, rescan directories of {}.", rootPath);
+                        registerAll(Paths.get(rootPath), false);
+                        continue;
+                    }
+
+                    if (dir == null || event.context() == null) {
+                        continue;
+                    }
+
+                    handleEvent(kind, dir.resolve((Path) event.context()));
+                }
+            } catch (Throwable e) {
+                logger.error("File monitor handle event failed.", e);
+            } finally {
+                if (!watchKey.reset()) {
+                    watchedDirs.remove(watchKey);
+                }
+            }
+        }
+    }
+
+    private void handleEvent(WatchEvent.Kind<?> kind, Path path) throws IOException {
+        String fileName = path.getFileName().toString();
+        if (fileName.endsWith(TILDE) || fileName.startsWith(DOT)) {
+            return;
+        }
+
+        File file = path.toFile();
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("monitor file {} {}.", kind, file);
+        }
+
+        if (kind == ENTRY_CREATE && file.isDirectory()) {
+            // 新目录注册前其中可能已经写入了文件，注册时一并补发创建事件
+            registerAll(path, true);
+            return;
+        }
+
+        if (file.isDirectory() || !fileFilter.accept(file)) {
+            return;
+        }
+
+        if (kind == ENTRY_CREATE) {
+            fileChanged(file, FileChangedEvent.Type.CREATED);
+        } else if (kind == ENTRY_MODIFY) {
+            fileChanged(file, FileChangedEvent.Type.MODIFIED);
+        } else if (kind == ENTRY_DELETE) {
+            fileChanged(file, FileChangedEvent.Type.DELETED);
+        }
+    }
+
+    /**
+     * 注册目录及其所有子目录，跳过隐藏目录与过滤器排除的目录
+     *
+     * @param start        start directory
+     * @param notifyCreate 是否为目录中已有的文件补发创建事件
+     * @throws IOException the io exception
+     */
+    private void registerAll(Path start, boolean notifyCreate) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                boolean hidden = !dir.equals(start) && dir.getFileName().toString().startsWith(DOT);
+                if (hidden || !fileFilter.accept(dir.toFile())) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+
+                try {
+                    watchedDirs.put(dir.register(watchService, KINDS, HIGH), dir);
+                } catch (IOException e) {
+                    // Linux下通常是超出了fs.inotify.max_user_watches
+                    logger.warn("Register directory {} failed, {}.", dir, e.getMessage());
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (notifyCreate) {
+                    handleEvent(ENTRY_CREATE, file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                logger.warn("Watch path {} failed, {}.", file, exc.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,370 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) [2023] [liuguangsheng]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.liuguangsheng.galois.service.mybatis;
+
+import io.liuguangsheng.galois.utils.GaloisLog;
+import org.apache.ibatis.binding.MapperRegistry;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.decorators.LoggingCache;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.session.Configuration;
+import org.slf4j.Logger;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static io.liuguangsheng.galois.constants.Constant.CACHE_REF_MAP;
+import static io.liuguangsheng.galois.constants.Constant.KNOWN_MAPPERS;
+import static io.liuguangsheng.galois.constants.Constant.LOADED_RESOURCES;
+import static io.liuguangsheng.galois.constants.Constant.MAPPED_STATEMENTS;
+import static io.liuguangsheng.galois.constants.Constant.PARAMETER_MAPS;
+
+/**
+ * Configuration与MapperRegistry内部字段的访问器，在捕获到Configuration时一次性解析为MethodHandle，
+ * 重新加载时不再重复反射查找。当前MyBatis版本缺少需要的字段时在创建阶段直接失败，并给出版本与字段名；
+ * 字段齐全但版本不在已验证的范围内时，只允许整个namespace的重新加载，不做按元素的差异重载
+ *
+ * @author liuguangsheng
+ * @since 2.0.1
+ */
+final class ConfigurationAccessor {
+
+    private static final Logger logger = new GaloisLog(ConfigurationAccessor.class);
+    private static final String CACHES = "caches";
+    /**
+     * 保存mapper元素的容器字段，按替换顺序排列，mappedStatements在最后
+     */
+    static final List<String> MAPPER_CONTAINERS = Collections.unmodifiableList(Arrays.asList(CACHES,
+            "resultMaps", PARAMETER_MAPS, "keyGenerators", "sqlFragments", LOADED_RESOURCES, CACHE_REF_MAP,
+            "incompleteStatements", "incompleteCacheRefs", "incompleteResultMaps", "incompleteMethods",
+            MAPPED_STATEMENTS));
+    private static final String CACHE = "cache";
+    private static final String DELEGATE = "delegate";
+    /**
+     * 已验证的MyBatis版本为3.5.x
+     */
+    private static final int SUPPORTED_MAJOR = 3;
+    private static final int SUPPORTED_MINOR = 5;
+    private static final Map<Class<?>, ConfigurationAccessor> ACCESSORS = new ConcurrentHashMap<>(4);
+    private final String version;
+    private final boolean supportedVersion;
+    private final Map<String, MethodHandle> getters = new LinkedHashMap<>(32);
+    private final Map<String, MethodHandle> setters = new LinkedHashMap<>(32);
+    private final MethodHandle knownMappersGetter;
+    private final MethodHandle knownMappersSetter;
+    private final MethodHandle statementCacheSetter;
+    private final MethodHandle[] loggingCacheCounters;
+    private final Map<Class<?>, Optional<MethodHandle>> cacheDelegates = new ConcurrentHashMap<>(16);
+
+    private ConfigurationAccessor() {
+        this.version = detectVersion();
+        this.supportedVersion = isSupportedVersion(version);
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+        try {
+            for (String name : MAPPER_CONTAINERS) {
+                Field field = accessible(findField(Configuration.class, name));
+                getters.put(name, lookup.unreflectGetter(field));
+                setters.put(name, lookup.unreflectSetter(field));
+            }
+
+            Field knownMappers = accessible(findField(MapperRegistry.class, KNOWN_MAPPERS));
+            knownMappersGetter = lookup.unreflectGetter(knownMappers);
+            knownMappersSetter = lookup.unreflectSetter(knownMappers);
+            statementCacheSetter = lookup.unreflectSetter(accessible(findField(MappedStatement.class, CACHE)));
+            loggingCacheCounters = resolveLoggingCacheCounters(lookup);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(String.format("Can not access MyBatis %s configuration internals.",
+                    version), e);
+        }
+    }
+
+    /**
+     * 获取Configuration实现类的访问器，每个实现类只解析一次
+     *
+     * @param type Configuration或其子类
+     * @return the configuration accessor
+     * @throws IllegalStateException 当前MyBatis版本缺少需要的字段
+     */
+    static ConfigurationAccessor of(Class<? extends Configuration> type) {
+        return ACCESSORS.computeIfAbsent(type, key -> {
+            ConfigurationAccessor accessor = new ConfigurationAccessor();
+            logger.info("Resolved configuration accessor of {} for MyBatis {}.", type.getName(), accessor.version);
+            if (!accessor.supportedVersion) {
+                logger.warn("MyBatis {} is not verified, supported versions are {}.{}.x, mapper diff reload is " +
+                        "disabled and every change reloads the whole namespace.", accessor.version,
+                        SUPPORTED_MAJOR, SUPPORTED_MINOR);
+            }
+            return accessor;
+        });
+    }
+
+    /**
+     * 当前MyBatis版本是否在已验证的范围内，范围之外不做按元素的差异重载
+     *
+     * @return the boolean
+     */
+    boolean isDiffSupported() {
+        return supportedVersion;
+    }
+
+    /**
+     * mappedStatements
+     *
+     * @param configuration the configuration
+     * @return the map
+     */
+    @SuppressWarnings("unchecked")
+    Map<String, Object> mappedStatements(Configuration configuration) {
+        return (Map<String, Object>) getContainer(configuration, MAPPED_STATEMENTS);
+    }
+
+    /**
+     * parameterMaps
+     *
+     * @param configuration the configuration
+     * @return the map
+     */
+    @SuppressWarnings("unchecked")
+    Map<String, Object> parameterMaps(Configuration configuration) {
+        return (Map<String, Object>) getContainer(configuration, PARAMETER_MAPS);
+    }
+
+    /**
+     * caches
+     *
+     * @param configuration the configuration
+     * @return the map
+     */
+    @SuppressWarnings("unchecked")
+    Map<String, Cache> caches(Configuration configuration) {
+        return (Map<String, Cache>) getContainer(configuration, CACHES);
+    }
+
+    /**
+     * loadedResources
+     *
+     * @param configuration the configuration
+     * @return the set
+     */
+    @SuppressWarnings("unchecked")
+    Set<String> loadedResources(Configuration configuration) {
+        return (Set<String>) getContainer(configuration, LOADED_RESOURCES);
+    }
+
+    /**
+     * cacheRefMap
+     *
+     * @param configuration the configuration
+     * @return the map
+     */
+    @SuppressWarnings("unchecked")
+    Map<String, String> cacheRefMap(Configuration configuration) {
+        return (Map<String, String>) getContainer(configuration, CACHE_REF_MAP);
+    }
+
+    /**
+     * MapperRegistry中已注册的mapper接口
+     *
+     * @param registry the registry
+     * @return the map
+     */
+    @SuppressWarnings("unchecked")
+    Map<Class<?>, Object> knownMappers(MapperRegistry registry) {
+        try {
+            return (Map<Class<?>, Object>) knownMappersGetter.invoke(registry);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Read " + KNOWN_MAPPERS + " fail.", e);
+        }
+    }
+
+    /**
+     * 替换MapperRegistry中已注册的mapper接口
+     *
+     * @param registry     the registry
+     * @param knownMappers the known mappers
+     */
+    void setKnownMappers(MapperRegistry registry, Map<Class<?>, Object> knownMappers) {
+        try {
+            knownMappersSetter.invoke(registry, knownMappers);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Write " + KNOWN_MAPPERS + " fail.", e);
+        }
+    }
+
+    /**
+     * 让已构建的statement改用另一个二级缓存
+     *
+     * @param statement the statement
+     * @param cache     the cache
+     */
+    void setStatementCache(MappedStatement statement, Cache cache) {
+        try {
+            statementCacheSetter.invoke(statement, cache);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Write cache of statement " + statement.getId() + " fail.", e);
+        }
+    }
+
+    /**
+     * 把旧缓存的请求数与命中数复制到新缓存，两者的装饰链中都有LoggingCache时才复制
+     *
+     * @param from 旧缓存
+     * @param to   新缓存
+     * @return 是否复制
+     */
+    boolean copyStatistics(Cache from, Cache to) {
+        LoggingCache source = findLoggingCache(from);
+        LoggingCache target = findLoggingCache(to);
+        if (loggingCacheCounters == null || source == null || target == null) {
+            return false;
+        }
+
+        try {
+            for (int i = 0; i < loggingCacheCounters.length; i += 2) {
+                loggingCacheCounters[i + 1].invoke(target, (int) loggingCacheCounters[i].invoke(source));
+            }
+            return true;
+        } catch (Throwable e) {
+            logger.warn("Copy statistics of cache {} fail.", from.getId(), e);
+            return false;
+        }
+    }
+
+    /**
+     * 读取{@link #MAPPER_CONTAINERS}中的容器
+     *
+     * @param configuration the configuration
+     * @param name          字段名
+     * @return the container
+     */
+    Object getContainer(Configuration configuration, String name) {
+        try {
+            return getters.get(name).invoke(configuration);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Read configuration field " + name + " fail.", e);
+        }
+    }
+
+    /**
+     * 替换{@link #MAPPER_CONTAINERS}中的容器，容器字段是final的，只在捕获Configuration时替换为转发视图
+     *
+     * @param configuration the configuration
+     * @param name          字段名
+     * @param container     the container
+     */
+    void setContainer(Configuration configuration, String name, Object container) {
+        try {
+            setters.get(name).invoke(configuration, container);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Write configuration field " + name + " fail.", e);
+        }
+    }
+
+    private LoggingCache findLoggingCache(Cache cache) {
+        Object current = cache;
+        while (current != null && !(current instanceof LoggingCache)) {
+            Optional<MethodHandle> delegate = cacheDelegates.computeIfAbsent(current.getClass(), this::delegateOf);
+            if (!delegate.isPresent()) {
+                return null;
+            }
+
+            try {
+                current = delegate.get().invoke(current);
+            } catch (Throwable e) {
+                return null;
+            }
+        }
+
+        return (LoggingCache) current;
+    }
+
+    private Optional<MethodHandle> delegateOf(Class<?> type) {
+        try {
+            Field field = accessible(type.getDeclaredField(DELEGATE));
+            return Cache.class.isAssignableFrom(field.getType())
+                    ? Optional.of(MethodHandles.lookup().unreflectGetter(field)) : Optional.empty();
+        } catch (NoSuchFieldException | IllegalAccessException | RuntimeException e) {
+            return Optional.empty();
+        }
+    }
+
+    private MethodHandle[] resolveLoggingCacheCounters(MethodHandles.Lookup lookup) throws IllegalAccessException {
+        try {
+            Field requests = accessible(LoggingCache.class.getDeclaredField("requests"));
+            Field hits = accessible(LoggingCache.class.getDeclaredField("hits"));
+            return new MethodHandle[]{lookup.unreflectGetter(requests), lookup.unreflectSetter(requests),
+                    lookup.unreflectGetter(hits), lookup.unreflectSetter(hits)};
+        } catch (NoSuchFieldException e) {
+            // 统计数据只是尽量保留，缺少字段时不影响重新加载
+            logger.warn("LoggingCache of MyBatis {} has no counter {}, cache statistics will restart after reload.",
+                    version, e.getMessage());
+            return null;
+        }
+    }
+
+    private Field findField(Class<?> type, String name) {
+        try {
+            return type.getDeclaredField(name);
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException(String.format("%s has no field '%s' in MyBatis %s, mapper reloading is "
+                    + "not supported.", type.getName(), name, version), e);
+        }
+    }
+
+    private static <T extends AccessibleObject> T accessible(T member) {
+        member.setAccessible(true);
+        return member;
+    }
+
+    private static boolean isSupportedVersion(String version) {
+        String[] parts = version.split("\\.");
+        if (parts.length < 2) {
+            return false;
+        }
+
+        try {
+            return Integer.parseInt(parts[0]) == SUPPORTED_MAJOR && Integer.parseInt(parts[1]) == SUPPORTED_MINOR;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static String detectVersion() {
+        String version = Configuration.class.getPackage().getImplementationVersion();
+        return version == null ? "unknown" : version;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) [2023] [liuguangsheng]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package io.liuguangsheng.galois.service.mybatis;
+
+import org.apache.ibatis.session.Configuration;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+
+/**
+ * 重新加载mapper时的暂存区。当前线程在live Configuration上清理并重新构建namespace，读写的是mapper元素容器的副本，
+ * 新构建的statement与resultMap引用的仍是live Configuration；完成后由{@link #publish()}一次性发布这些副本，
+ * 查询线程看到的始终是完整的旧版本或完整的新版本，查询路径上不需要加锁。未发布就关闭时副本被丢弃
+ *
+ * @author liuguangsheng
+ * @since 2.0.1
+ */
+final class ConfigurationStage implements AutoCloseable {
+
+    private final MapperContainers containers;
+    private final Configuration live;
+    private final long baseVersion;
+
+    private ConfigurationStage(MapperContainers containers, Configuration live, long baseVersion) {
+        this.containers = containers;
+        this.live = live;
+        this.baseVersion = baseVersion;
+    }
+
+    /**
+     * 基于live Configuration的当前状态为当前线程创建容器副本
+     *
+     * @param containers live Configuration的mapper元素容器
+     * @param live       正在使用的Configuration
+     * @return the configuration stage
+     */
+    static ConfigurationStage open(MapperContainers containers, Configuration live) {
+        return new ConfigurationStage(containers, live, containers.stage(ConfigurationStage::copyOf));
+    }
+
+    /**
+     * 用于清理和构建的Configuration，即live Configuration，当前线程通过它读写的是容器副本
+     *
+     * @return the configuration
+     */
+    Configuration getConfiguration() {
+        return live;
+    }
+
+    /**
+     * 发布容器副本并结束暂存，暂存期间其他线程修改过容器时抛出IllegalStateException，live保持旧版本
+     */
+    void publish() {
+        containers.publish(baseVersion);
+    }
+
+    @Override
+    public void close() {
+        containers.unstage();
+    }
+
+    /**
+     * 浅复制容器，StrictMap等HashMap子类通过clone保留名称与冲突提示等属性
+     */
+    private static Object copyOf(Object container) {
+        if (container instanceof HashMap) {
+            return ((HashMap<?, ?>) container).clone();
+        }
+        if (container instanceof HashSet) {
+            return ((HashSet<?>) container).clone();
+        }
+        if (container instanceof LinkedList) {
+            return ((LinkedList<?>) container).clone();
+        }
+        if (container instanceof ArrayList) {
+            return ((ArrayList<?>) container).clone();
+        }
+
+        throw new IllegalStateException("Unsupported configuration container " + container.getClass().getName());
+    }
+}
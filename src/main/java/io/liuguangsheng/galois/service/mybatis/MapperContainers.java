@@ -0,0 +1,544 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) [2023] [liuguangsheng]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package io.liuguangsheng.galois.service.mybatis;
+
+import org.apache.ibatis.session.Configuration;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+import static io.liuguangsheng.galois.constants.Constant.KNOWN_MAPPERS;
+
+/**
+ * live Configuration中保存mapper元素的容器。安装后Configuration与MapperRegistry的容器字段指向转发视图，
+ * 视图读取同一份已发布的容器快照；重新加载的线程在暂存期间读写自己的副本，发布时只做一次volatile写，
+ * 查询线程看到的始终是完整的旧版本或完整的新版本。
+ * <p>
+ * 其他线程通过视图的put、remove、add等方法修改容器时会增加版本号，暂存期间版本号发生变化时放弃发布，
+ * 避免丢失这些修改；通过keySet、values、iterator等返回的集合进行的修改不计入版本号。
+ * 已发布的mapper接口另按类名索引，快照或版本号变化后下次查找时重建
+ *
+ * @author liuguangsheng
+ * @since 2.0.1
+ */
+final class MapperContainers {
+
+    /**
+     * 容器名称，{@link ConfigurationAccessor#MAPPER_CONTAINERS}之后是MapperRegistry的knownMappers
+     */
+    static final List<String> NAMES;
+    private static final int KNOWN_MAPPERS_SLOT;
+
+    static {
+        List<String> names = new ArrayList<>(ConfigurationAccessor.MAPPER_CONTAINERS);
+        names.add(KNOWN_MAPPERS);
+        KNOWN_MAPPERS_SLOT = names.size() - 1;
+        NAMES = Collections.unmodifiableList(names);
+    }
+
+    private final Object lock = new Object();
+    private volatile Object[] published;
+    private volatile Thread owner;
+    private Object[] staged;
+    private volatile long version;
+    private volatile MapperNames mapperNames;
+
+    private MapperContainers() {
+    }
+
+    /**
+     * 把Configuration与MapperRegistry的容器字段替换为转发视图，只在捕获Configuration时执行一次。
+     * premain模式下在Configuration构造器返回前执行；attach模式下视图最初转发到原有容器，替换前后查询线程读到的内容相同
+     *
+     * @param accessor      the configuration accessor
+     * @param configuration the live configuration
+     * @return the mapper containers
+     */
+    @SuppressWarnings("unchecked")
+    static MapperContainers install(ConfigurationAccessor accessor, Configuration configuration) {
+        MapperContainers containers = new MapperContainers();
+        Object[] current = new Object[NAMES.size()];
+        for (int slot = 0; slot < KNOWN_MAPPERS_SLOT; slot++) {
+            current[slot] = accessor.getContainer(configuration, NAMES.get(slot));
+        }
+        current[KNOWN_MAPPERS_SLOT] = accessor.knownMappers(configuration.getMapperRegistry());
+        containers.published = current;
+
+        for (int slot = 0; slot < KNOWN_MAPPERS_SLOT; slot++) {
+            accessor.setContainer(configuration, NAMES.get(slot), containers.viewOf(slot, current[slot]));
+        }
+        accessor.setKnownMappers(configuration.getMapperRegistry(),
+                (Map<Class<?>, Object>) containers.viewOf(KNOWN_MAPPERS_SLOT, current[KNOWN_MAPPERS_SLOT]));
+        return containers;
+    }
+
+    /**
+     * 为当前线程创建全部容器的副本，之后当前线程通过视图读写的都是副本
+     *
+     * @param copier 容器的复制方式
+     * @return 创建副本时的版本号
+     * @throws IllegalStateException 已有其他线程正在暂存
+     */
+    long stage(UnaryOperator<Object> copier) {
+        synchronized (lock) {
+            if (owner != null) {
+                throw new IllegalStateException("Mapper containers are being staged by " + owner.getName() + ".");
+            }
+
+            Object[] base = published;
+            Object[] copy = new Object[base.length];
+            for (int slot = 0; slot < base.length; slot++) {
+                copy[slot] = copier.apply(base[slot]);
+            }
+            staged = copy;
+            owner = Thread.currentThread();
+            return version;
+        }
+    }
+
+    /**
+     * 发布当前线程的副本并结束暂存
+     *
+     * @param baseVersion {@link #stage(UnaryOperator)}返回的版本号
+     * @throws IllegalStateException 暂存期间其他线程修改了容器
+     */
+    void publish(long baseVersion) {
+        synchronized (lock) {
+            checkOwner();
+            if (version != baseVersion) {
+                throw new IllegalStateException("Mapper containers were modified by another thread during reload.");
+            }
+
+            published = staged;
+            owner = null;
+            staged = null;
+        }
+    }
+
+    /**
+     * 结束当前线程的暂存，未发布的副本被丢弃
+     */
+    void unstage() {
+        synchronized (lock) {
+            if (owner == Thread.currentThread()) {
+                owner = null;
+                staged = null;
+            }
+        }
+    }
+
+    /**
+     * 按类名查找已发布的mapper接口
+     *
+     * @param className 类名
+     * @return mapper接口，未注册时返回null
+     */
+    Class<?> knownMapper(String className) {
+        return mapperNames().types.get(className);
+    }
+
+    /**
+     * 是否有已发布的mapper接口的class文件名为fileName，用于在读取class文件之前排除无关文件
+     *
+     * @param fileName class文件名，不含扩展名
+     * @return the boolean
+     */
+    boolean isKnownMapperFile(String fileName) {
+        return mapperNames().fileNames.contains(fileName);
+    }
+
+    private MapperNames mapperNames() {
+        MapperNames names = mapperNames;
+        if (names != null && names.isFresh(published, version)) {
+            return names;
+        }
+
+        synchronized (lock) {
+            names = mapperNames;
+            if (names == null || !names.isFresh(published, version)) {
+                names = new MapperNames(published, version);
+                mapperNames = names;
+            }
+            return names;
+        }
+    }
+
+    private void checkOwner() {
+        if (owner != Thread.currentThread()) {
+            throw new IllegalStateException("Mapper containers are not staged by current thread.");
+        }
+    }
+
+    private Object read(int slot) {
+        // 暂存线程只读取自己写入的staged，不需要额外同步
+        return owner == Thread.currentThread() ? staged[slot] : published[slot];
+    }
+
+    private <C, T> T write(int slot, Function<C, T> operation) {
+        if (owner == Thread.currentThread()) {
+            return operation.apply(cast(staged[slot]));
+        }
+
+        synchronized (lock) {
+            version++;
+            return operation.apply(cast(published[slot]));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <C> C cast(Object container) {
+        return (C) container;
+    }
+
+    /**
+     * 某个已发布快照与版本号下的mapper接口类名索引
+     */
+    private static final class MapperNames {
+
+        private final Object[] source;
+        private final long version;
+        private final Map<String, Class<?>> types = new HashMap<>(64);
+        private final Set<String> fileNames = new HashSet<>(64);
+
+        private MapperNames(Object[] source, long version) {
+            this.source = source;
+            this.version = version;
+
+            Map<Class<?>, ?> knownMappers = cast(source[KNOWN_MAPPERS_SLOT]);
+            for (Class<?> type : knownMappers.keySet()) {
+                String name = type.getName();
+                types.put(name, type);
+                fileNames.add(name.substring(name.lastIndexOf('.') + 1));
+            }
+        }
+
+        private boolean isFresh(Object[] source, long version) {
+            return this.source == source && this.version == version;
+        }
+    }
+
+    private Object viewOf(int slot, Object container) {
+        if (container instanceof Map) {
+            return new MapView<>(slot);
+        }
+        if (container instanceof Set) {
+            return new SetView<>(slot);
+        }
+        if (container instanceof Collection) {
+            return new CollectionView<>(slot);
+        }
+
+        throw new IllegalStateException("Unsupported configuration container " + container.getClass().getName());
+    }
+
+    /**
+     * Map容器的转发视图，StrictMap的重复检查与缺失提示由被转发的容器完成
+     */
+    private final class MapView<K, V> implements Map<K, V> {
+
+        private final int slot;
+
+        private MapView(int slot) {
+            this.slot = slot;
+        }
+
+        private Map<K, V> target() {
+            return cast(read(slot));
+        }
+
+        @Override
+        public int size() {
+            return target().size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return target().isEmpty();
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return target().containsKey(key);
+        }
+
+        @Override
+        public boolean containsValue(Object value) {
+            return target().containsValue(value);
+        }
+
+        @Override
+        public V get(Object key) {
+            return target().get(key);
+        }
+
+        @Override
+        public V getOrDefault(Object key, V defaultValue) {
+            return target().getOrDefault(key, defaultValue);
+        }
+
+        @Override
+        public Set<K> keySet() {
+            return target().keySet();
+        }
+
+        @Override
+        public Collection<V> values() {
+            return target().values();
+        }
+
+        @Override
+        public Set<Entry<K, V>> entrySet() {
+            return target().entrySet();
+        }
+
+        @Override
+        public void forEach(BiConsumer<? super K, ? super V> action) {
+            target().forEach(action);
+        }
+
+        @Override
+        public V put(K key, V value) {
+            return MapperContainers.this.<Map<K, V>, V>write(slot, map -> map.put(key, value));
+        }
+
+        @Override
+        public V putIfAbsent(K key, V value) {
+            return MapperContainers.this.<Map<K, V>, V>write(slot, map -> map.putIfAbsent(key, value));
+        }
+
+        @Override
+        public void putAll(Map<? extends K, ? extends V> m) {
+            MapperContainers.this.<Map<K, V>, Object>write(slot, map -> {
+                map.putAll(m);
+                return null;
+            });
+        }
+
+        @Override
+        public V remove(Object key) {
+            return MapperContainers.this.<Map<K, V>, V>write(slot, map -> map.remove(key));
+        }
+
+        @Override
+        public boolean remove(Object key, Object value) {
+            return MapperContainers.this.<Map<K, V>, Boolean>write(slot, map -> map.remove(key, value));
+        }
+
+        @Override
+        public V replace(K key, V value) {
+            return MapperContainers.this.<Map<K, V>, V>write(slot, map -> map.replace(key, value));
+        }
+
+        @Override
+        public boolean replace(K key, V oldValue, V newValue) {
+            return MapperContainers.this.<Map<K, V>, Boolean>write(slot, map -> map.replace(key, oldValue, newValue));
+        }
+
+        @Override
+        public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+            MapperContainers.this.<Map<K, V>, Object>write(slot, map -> {
+                map.replaceAll(function);
+                return null;
+            });
+        }
+
+        @Override
+        public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+            return MapperContainers.this.<Map<K, V>, V>write(slot, map -> map.computeIfAbsent(key, mappingFunction));
+        }
+
+        @Override
+        public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+            return MapperContainers.this.<Map<K, V>, V>write(slot,
+                    map -> map.computeIfPresent(key, remappingFunction));
+        }
+
+        @Override
+        public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+            return MapperContainers.this.<Map<K, V>, V>write(slot, map -> map.compute(key, remappingFunction));
+        }
+
+        @Override
+        public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+            return MapperContainers.this.<Map<K, V>, V>write(slot, map -> map.merge(key, value, remappingFunction));
+        }
+
+        @Override
+        public void clear() {
+            MapperContainers.this.<Map<K, V>, Object>write(slot, map -> {
+                map.clear();
+                return null;
+            });
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o == this || target().equals(o);
+        }
+
+        @Override
+        public int hashCode() {
+            return target().hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return target().toString();
+        }
+    }
+
+    /**
+     * Collection容器的转发视图
+     */
+    private class CollectionView<E> implements Collection<E> {
+
+        private final int slot;
+
+        private CollectionView(int slot) {
+            this.slot = slot;
+        }
+
+        Collection<E> target() {
+            return cast(read(slot));
+        }
+
+        @Override
+        public int size() {
+            return target().size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return target().isEmpty();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return target().contains(o);
+        }
+
+        @Override
+        public boolean containsAll(Collection<?> c) {
+            return target().containsAll(c);
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            return target().iterator();
+        }
+
+        @Override
+        public Spliterator<E> spliterator() {
+            return target().spliterator();
+        }
+
+        @Override
+        public Object[] toArray() {
+            return target().toArray();
+        }
+
+        @Override
+        public <T> T[] toArray(T[] a) {
+            return target().toArray(a);
+        }
+
+        @Override
+        public boolean add(E e) {
+            return MapperContainers.this.<Collection<E>, Boolean>write(slot, collection -> collection.add(e));
+        }
+
+        @Override
+        public boolean addAll(Collection<? extends E> c) {
+            return MapperContainers.this.<Collection<E>, Boolean>write(slot, collection -> collection.addAll(c));
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            return MapperContainers.this.<Collection<E>, Boolean>write(slot, collection -> collection.remove(o));
+        }
+
+        @Override
+        public boolean removeAll(Collection<?> c) {
+            return MapperContainers.this.<Collection<E>, Boolean>write(slot, collection -> collection.removeAll(c));
+        }
+
+        @Override
+        public boolean removeIf(Predicate<? super E> filter) {
+            return MapperContainers.this.<Collection<E>, Boolean>write(slot, collection -> collection.removeIf(filter));
+        }
+
+        @Override
+        public boolean retainAll(Collection<?> c) {
+            return MapperContainers.this.<Collection<E>, Boolean>write(slot, collection -> collection.retainAll(c));
+        }
+
+        @Override
+        public void clear() {
+            MapperContainers.this.<Collection<E>, Object>write(slot, collection -> {
+                collection.clear();
+                return null;
+            });
+        }
+
+        @Override
+        public String toString() {
+            return target().toString();
+        }
+    }
+
+    /**
+     * Set容器的转发视图
+     */
+    private final class SetView<E> extends CollectionView<E> implements Set<E> {
+
+        private SetView(int slot) {
+            super(slot);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o == this || target().equals(o);
+        }
+
+        @Override
+        public int hashCode() {
+            return target().hashCode();
+        }
+    }
+}
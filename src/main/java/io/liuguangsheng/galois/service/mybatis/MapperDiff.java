@@ -0,0 +1,258 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) [2023] [liuguangsheng]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.liuguangsheng.galois.service.mybatis;
+
+import io.liuguangsheng.galois.utils.DigestUtil;
+import org.apache.ibatis.parsing.XNode;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static io.liuguangsheng.galois.constants.Constant.COMMA;
+import static io.liuguangsheng.galois.constants.Constant.DOT;
+import static io.liuguangsheng.galois.constants.Constant.ID;
+
+/**
+ * mapper文件中顶层元素的指纹与元素间的依赖关系，用于比较同一文件的前后两个版本，
+ * 找出定义发生变化的statement、sql片段、resultMap，以及通过include refid、resultMap、extends依赖它们的元素
+ *
+ * @author liuguangsheng
+ * @since 2.0.1
+ */
+final class MapperDiff {
+
+    /**
+     * statement元素key前缀
+     */
+    static final String STATEMENT = "statement:";
+    /**
+     * sql片段元素key前缀
+     */
+    static final String SQL = "sql:";
+    /**
+     * resultMap元素key前缀
+     */
+    static final String RESULT_MAP = "resultMap:";
+    private static final String PARAMETER_MAP = "parameterMap:";
+    private static final String CACHE = "cache";
+    private static final String CACHE_REF = "cache-ref";
+    private static final String DATABASE_ID = "databaseId";
+    private static final String PLACEHOLDER = "${";
+    private final String namespace;
+    private final Map<String, String> fingerprints = new LinkedHashMap<>(64);
+    private final Map<String, Set<String>> dependencies = new HashMap<>(64);
+
+    private MapperDiff(String namespace) {
+        this.namespace = namespace;
+    }
+
+    /**
+     * 为文档的顶层元素计算指纹，必须在文档交给XMLMapperBuilder之前调用，构建过程会展开其中的include节点
+     *
+     * @param root      mapper根节点
+     * @param namespace the namespace
+     * @return the mapper diff
+     */
+    static MapperDiff of(XNode root, String namespace) {
+        MapperDiff diff = new MapperDiff(namespace);
+        Map<String, XNode> elements = new LinkedHashMap<>(64);
+
+        for (XNode child : root.getChildren()) {
+            String key = keyOf(child);
+            if (key != null) {
+                elements.put(key, child);
+                diff.fingerprints.put(key, DigestUtil.sha256Hex(child.toString()));
+            }
+        }
+
+        elements.forEach((key, child) -> {
+            Set<String> deps = new HashSet<>();
+
+            for (XNode include : child.evalNodes(".//include")) {
+                diff.addReference(deps, SQL, include.getStringAttribute("refid"));
+            }
+            for (XNode node : child.evalNodes(".|.//*[@resultMap]")) {
+                String resultMaps = node.getStringAttribute("resultMap");
+                if (resultMaps != null) {
+                    for (String resultMap : resultMaps.split(COMMA)) {
+                        diff.addReference(deps, RESULT_MAP, resultMap.trim());
+                    }
+                }
+            }
+            diff.addReference(deps, RESULT_MAP, child.getStringAttribute("extends"));
+
+            deps.remove(key);
+            diff.dependencies.put(key, deps);
+        });
+
+        return diff;
+    }
+
+    /**
+     * 元素的key，顶层元素以外返回null
+     *
+     * @param node the node
+     * @return the key
+     */
+    static String keyOf(XNode node) {
+        String databaseId = node.getStringAttribute(DATABASE_ID);
+        String suffix = databaseId == null ? "" : "#" + databaseId;
+
+        switch (node.getName()) {
+            case "select":
+            case "insert":
+            case "update":
+            case "delete":
+                return STATEMENT + node.getStringAttribute(ID) + suffix;
+            case "sql":
+                return SQL + node.getStringAttribute(ID) + suffix;
+            case "resultMap":
+                return RESULT_MAP + node.getStringAttribute(ID, node.getValueBasedIdentifier());
+            case "parameterMap":
+                return PARAMETER_MAP + node.getStringAttribute(ID);
+            case CACHE:
+                return CACHE;
+            case CACHE_REF:
+                return CACHE_REF;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 从key中取出元素在namespace内的id
+     *
+     * @param key the key
+     * @return the id
+     */
+    static String idOf(String key) {
+        String id = key.substring(key.indexOf(':') + 1);
+        int index = id.indexOf('#');
+        return index < 0 ? id : id.substring(0, index);
+    }
+
+    /**
+     * 相对上一个版本需要替换的元素，包括新增、修改、删除的元素及其传递依赖者。
+     * cache、cache-ref、parameterMap发生变化时无法局部替换，返回null
+     *
+     * @param previous 上一个版本
+     * @return 需要替换的元素key，无法局部替换时返回null
+     */
+    Set<String> affectedSince(MapperDiff previous) {
+        Set<String> changed = new HashSet<>();
+
+        for (Map.Entry<String, String> entry : fingerprints.entrySet()) {
+            if (!entry.getValue().equals(previous.fingerprints.get(entry.getKey()))) {
+                changed.add(entry.getKey());
+            }
+        }
+        for (String key : previous.fingerprints.keySet()) {
+            if (!fingerprints.containsKey(key)) {
+                changed.add(key);
+            }
+        }
+
+        for (String key : changed) {
+            if (key.equals(CACHE) || key.equals(CACHE_REF) || key.startsWith(PARAMETER_MAP)) {
+                return null;
+            }
+        }
+
+        Map<String, Set<String>> dependents = new HashMap<>(dependencies.size());
+        dependencies.forEach((key, deps) -> deps.forEach(
+                dep -> dependents.computeIfAbsent(dep, k -> new HashSet<>()).add(key)));
+
+        Set<String> affected = new HashSet<>(changed);
+        Deque<String> queue = new ArrayDeque<>(changed);
+        while (!queue.isEmpty()) {
+            for (String dependent : dependents.getOrDefault(queue.poll(), Collections.emptySet())) {
+                if (affected.add(dependent)) {
+                    queue.add(dependent);
+                }
+            }
+        }
+
+        return affected;
+    }
+
+    /**
+     * 当前版本中是否存在该元素
+     *
+     * @param key the key
+     * @return the boolean
+     */
+    boolean contains(String key) {
+        return fingerprints.containsKey(key);
+    }
+
+    /**
+     * 元素总数
+     *
+     * @return the size
+     */
+    int size() {
+        return fingerprints.size();
+    }
+
+    /**
+     * 是否声明了二级缓存
+     *
+     * @return the boolean
+     */
+    boolean hasCache() {
+        return fingerprints.containsKey(CACHE);
+    }
+
+    private void addReference(Set<String> deps, String prefix, String reference) {
+        if (reference == null || reference.isEmpty()) {
+            return;
+        }
+
+        if (reference.contains(PLACEHOLDER)) {
+            // 运行时才能确定引用的元素，保守地依赖同类型的全部元素
+            fingerprints.keySet().stream().filter(key -> key.startsWith(prefix)).forEach(deps::add);
+            return;
+        }
+
+        if (!reference.startsWith(namespace + DOT) && reference.contains(DOT)) {
+            // 其他namespace中的元素不在本文件的比较范围内
+            return;
+        }
+
+        String id = reference.startsWith(namespace + DOT) ? reference.substring(namespace.length() + 1) : reference;
+
+        deps.add(prefix + id);
+        if (SQL.equals(prefix)) {
+            // 带databaseId的sql片段与不带的同名片段都可能被引用
+            fingerprints.keySet().stream().filter(key -> key.startsWith(prefix + id + "#")).forEach(deps::add);
+        }
+    }
+}
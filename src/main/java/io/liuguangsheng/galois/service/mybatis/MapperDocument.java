@@ -0,0 +1,193 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) [2023] [liuguangsheng]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.liuguangsheng.galois.service.mybatis;
+
+import io.liuguangsheng.galois.utils.GaloisLog;
+import org.apache.ibatis.builder.xml.XMLMapperBuilder;
+import org.apache.ibatis.builder.xml.XMLMapperEntityResolver;
+import org.apache.ibatis.parsing.XNode;
+import org.apache.ibatis.parsing.XPathParser;
+import org.apache.ibatis.session.Configuration;
+import org.slf4j.Logger;
+import org.springframework.core.io.Resource;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.util.Map;
+import java.util.Set;
+
+import static io.liuguangsheng.galois.constants.Constant.NAMESPACE;
+
+/**
+ * 解析一次的mapper文件，同一份文档既用于清理旧的配置，也直接交给{@link XMLMapperBuilder}重新构建
+ *
+ * @author liuguangsheng
+ * @since 2.0.1
+ */
+final class MapperDocument {
+
+    private static final Logger logger = new GaloisLog(MapperDocument.class);
+    private static final String NODE_MAPPER = "/mapper";
+    private static final String CACHE = "cache";
+    private static final String CACHE_REF = "cache-ref";
+    private static final Constructor<XMLMapperBuilder> BUILDER_CONSTRUCTOR = findBuilderConstructor();
+    private final Resource resource;
+    private final XPathParser parser;
+    private final XNode root;
+    private int parseCount;
+
+    private MapperDocument(Resource resource, XPathParser parser) {
+        this.resource = resource;
+        this.parser = parser;
+        this.root = parser.evalNode(NODE_MAPPER);
+        this.parseCount = 1;
+    }
+
+    /**
+     * 解析mapper文件
+     *
+     * @param resource      the resource
+     * @param configuration the configuration
+     * @return the mapper document
+     * @throws IOException the io exception
+     */
+    static MapperDocument parse(Resource resource, Configuration configuration) throws IOException {
+        try (InputStream is = resource.getInputStream()) {
+            XPathParser parser = new XPathParser(is, true, configuration.getVariables(),
+                    new XMLMapperEntityResolver());
+            return new MapperDocument(resource, parser);
+        }
+    }
+
+    /**
+     * 使用已解析的文档重新构建mapper，构建过程会展开文档中的include节点，因此应在清理完成后调用且只调用一次
+     *
+     * @param configuration the configuration
+     * @throws IOException the io exception
+     */
+    void build(Configuration configuration) throws IOException {
+        Map<String, XNode> sqlFragments = configuration.getSqlFragments();
+        XMLMapperBuilder builder = null;
+
+        if (BUILDER_CONSTRUCTOR != null) {
+            try {
+                builder = BUILDER_CONSTRUCTOR.newInstance(parser, configuration, resource.toString(), sqlFragments);
+            } catch (ReflectiveOperationException e) {
+                logger.warn("Create XMLMapperBuilder with parsed document failed, parse {} again.", resource, e);
+            }
+        }
+
+        if (builder == null) {
+            try (InputStream is = resource.getInputStream()) {
+                parseCount++;
+                builder = new XMLMapperBuilder(is, configuration, resource.toString(), sqlFragments);
+                builder.parse();
+            }
+            return;
+        }
+
+        builder.parse();
+    }
+
+    /**
+     * 只重新构建指定的顶层元素，用于差异重载。在文档副本上移除其余元素后交给XMLMapperBuilder，原文档保持不变；
+     * 未变化的cache元素替换为指向自身namespace的cache-ref，使新的statement继续使用已有的二级缓存
+     *
+     * @param configuration the configuration
+     * @param keys          需要构建的元素，见{@link MapperDiff#keyOf(XNode)}
+     * @return 无法基于已解析的文档构建时返回false
+     * @throws ReflectiveOperationException the reflective operation exception
+     */
+    boolean buildElements(Configuration configuration, Set<String> keys) throws ReflectiveOperationException {
+        if (BUILDER_CONSTRUCTOR == null) {
+            return false;
+        }
+
+        Document copy = (Document) root.getNode().getOwnerDocument().cloneNode(true);
+        XPathParser copyParser = new XPathParser(copy, false, configuration.getVariables(),
+                new XMLMapperEntityResolver());
+        XNode copyRoot = copyParser.evalNode(NODE_MAPPER);
+        Node mapper = copyRoot.getNode();
+
+        for (XNode child : copyRoot.getChildren()) {
+            String key = MapperDiff.keyOf(child);
+
+            if (CACHE.equals(child.getName())) {
+                Element cacheRef = copy.createElement(CACHE_REF);
+                cacheRef.setAttribute(NAMESPACE, copyRoot.getStringAttribute(NAMESPACE));
+                mapper.replaceChild(cacheRef, child.getNode());
+            } else if (!CACHE_REF.equals(child.getName()) && (key == null || !keys.contains(key))) {
+                mapper.removeChild(child.getNode());
+            }
+        }
+
+        BUILDER_CONSTRUCTOR.newInstance(copyParser, configuration, resource.toString(),
+                configuration.getSqlFragments()).parse();
+        return true;
+    }
+
+    /**
+     * Gets resource.
+     *
+     * @return the resource
+     */
+    Resource getResource() {
+        return resource;
+    }
+
+    /**
+     * mapper根节点
+     *
+     * @return the root
+     */
+    XNode getRoot() {
+        return root;
+    }
+
+    /**
+     * 该文件被解析的次数，正常情况下为1
+     *
+     * @return the parse count
+     */
+    int getParseCount() {
+        return parseCount;
+    }
+
+    private static Constructor<XMLMapperBuilder> findBuilderConstructor() {
+        try {
+            Constructor<XMLMapperBuilder> constructor = XMLMapperBuilder.class.getDeclaredConstructor(
+                    XPathParser.class, Configuration.class, String.class, Map.class);
+            constructor.setAccessible(true);
+            return constructor;
+        } catch (Throwable e) {
+            logger.warn("XMLMapperBuilder(XPathParser, ...) not found, mapper files will be parsed twice on reload.");
+            return null;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) [2023] [liuguangsheng]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.liuguangsheng.galois.service.mybatis;
+
+import io.liuguangsheng.galois.utils.GaloisLog;
+import org.apache.ibatis.executor.keygen.SelectKeyGenerator;
+import org.apache.ibatis.mapping.Discriminator;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.parsing.XNode;
+import org.apache.ibatis.session.Configuration;
+import org.slf4j.Logger;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import static io.liuguangsheng.galois.constants.Constant.DOT;
+import static io.liuguangsheng.galois.constants.Constant.ID;
+
+/**
+ * namespace到mapper文件及其statement、resultMap、sql片段、parameterMap、keyGenerator的索引。
+ * Configuration在构造时即被捕获，此时尚未加载任何mapper，因此索引在第一次使用时才完整扫描一遍，
+ * 之后每次重载只按重新解析的文档更新对应namespace
+ *
+ * @author liuguangsheng
+ * @since 2.0.1
+ */
+@SuppressWarnings("unchecked")
+final class MapperIndex {
+
+    private static final Logger logger = new GaloisLog(MapperIndex.class);
+    private static final String NAMESPACE_RESOURCE_PREFIX = "namespace:";
+    private final Configuration configuration;
+    private final ConfigurationAccessor accessor;
+    private final Map<String, Entry> entries = new HashMap<>(256);
+    private boolean built;
+
+    /**
+     * Instantiates a new Mapper index.
+     *
+     * @param configuration the configuration
+     * @param accessor      the configuration accessor
+     */
+    MapperIndex(Configuration configuration, ConfigurationAccessor accessor) {
+        this.configuration = configuration;
+        this.accessor = accessor;
+    }
+
+    /**
+     * 获取namespace的索引项
+     *
+     * @param namespace the namespace
+     * @return 未加载过的namespace返回null
+     */
+    synchronized Entry get(String namespace) {
+        ensureBuilt();
+        return entries.get(namespace);
+    }
+
+    /**
+     * 按重载后的文档更新namespace的索引项，只查找属于该namespace的元素
+     *
+     * @param namespace the namespace
+     * @param documents 该namespace下全部重新构建过的mapper文件
+     */
+    synchronized void update(String namespace, Collection<MapperDocument> documents) {
+        ensureBuilt();
+        Entry entry = new Entry();
+
+        for (MapperDocument document : documents) {
+            entry.resources.add(document.getResource().toString());
+            XNode root = document.getRoot();
+
+            for (XNode node : root.evalNodes("select|insert|update|delete")) {
+                String id = MyBatisBeanReloader.applyCurrentNamespace(node.getStringAttribute(ID), false, namespace);
+                String keyId = id + SelectKeyGenerator.SELECT_KEY_SUFFIX;
+
+                if (configuration.hasStatement(id, false)) {
+                    entry.statementIds.add(id);
+                    collectResultMaps(configuration.getMappedStatement(id, false).getResultMaps(), namespace, entry);
+                }
+                if (configuration.hasKeyGenerator(keyId)) {
+                    entry.statementIds.add(keyId);
+                    entry.keyGeneratorIds.add(keyId);
+                }
+            }
+            for (XNode node : root.evalNodes("/mapper/sql")) {
+                entry.sqlFragmentIds.add(
+                        MyBatisBeanReloader.applyCurrentNamespace(node.getStringAttribute(ID), false, namespace));
+            }
+            for (XNode node : root.evalNodes("/mapper/parameterMap")) {
+                entry.parameterMapIds.add(
+                        MyBatisBeanReloader.applyCurrentNamespace(node.getStringAttribute(ID), false, namespace));
+            }
+            for (XNode node : root.evalNodes("/mapper/resultMap")) {
+                String id = MyBatisBeanReloader.applyCurrentNamespace(
+                        node.getStringAttribute(ID, node.getValueBasedIdentifier()), false, namespace);
+                collectResultMap(id, namespace, entry);
+            }
+        }
+
+        entries.put(namespace, entry);
+    }
+
+    private void ensureBuilt() {
+        if (built) {
+            return;
+        }
+
+        long begin = System.currentTimeMillis();
+        try {
+            Set<String> namespaces = new HashSet<>();
+            for (String resource : accessor.loadedResources(configuration)) {
+                if (resource.startsWith(NAMESPACE_RESOURCE_PREFIX)) {
+                    namespaces.add(resource.substring(NAMESPACE_RESOURCE_PREFIX.length()));
+                }
+            }
+
+            Map<String, Object> mappedStatements = accessor.mappedStatements(configuration);
+            for (Map.Entry<String, Object> item : mappedStatements.entrySet()) {
+                // StrictMap中短名称对应的值为Ambiguity或同一个statement，只索引完整id
+                if (!(item.getValue() instanceof MappedStatement) || !item.getKey().contains(DOT)) {
+                    continue;
+                }
+
+                MappedStatement statement = (MappedStatement) item.getValue();
+                Entry entry = entryOf(item.getKey(), namespaces);
+                entry.statementIds.add(item.getKey());
+                entry.resources.add(statement.getResource());
+            }
+
+            configuration.getKeyGeneratorNames().forEach(id -> index(id, namespaces, e -> e.keyGeneratorIds));
+            configuration.getResultMapNames().forEach(id -> index(id, namespaces, e -> e.resultMapIds));
+            configuration.getSqlFragments().keySet().forEach(id -> index(id, namespaces, e -> e.sqlFragmentIds));
+            configuration.getParameterMapNames().forEach(id -> index(id, namespaces, e -> e.parameterMapIds));
+        } catch (IllegalStateException e) {
+            logger.error("Build mybatis mapper index failed.", e);
+        }
+
+        built = true;
+        logger.info("Build mybatis mapper index with {} namespaces in {} ms.", entries.size(),
+                System.currentTimeMillis() - begin);
+    }
+
+    private void index(String id, Set<String> namespaces, Function<Entry, Set<String>> ids) {
+        if (id.contains(DOT)) {
+            ids.apply(entryOf(id, namespaces)).add(id);
+        }
+    }
+
+    /**
+     * 按已知namespace中最长的前缀归属，property中含有点号的嵌套resultMap也能正确归属
+     */
+    private Entry entryOf(String id, Set<String> namespaces) {
+        String namespace = id.substring(0, id.lastIndexOf(DOT));
+        for (int i = id.lastIndexOf(DOT); i > 0; i = id.lastIndexOf(DOT, i - 1)) {
+            String prefix = id.substring(0, i);
+            if (namespaces.contains(prefix)) {
+                namespace = prefix;
+                break;
+            }
+        }
+        return entries.computeIfAbsent(namespace, key -> new Entry());
+    }
+
+    private void collectResultMaps(List<ResultMap> resultMaps, String namespace, Entry entry) {
+        for (ResultMap resultMap : resultMaps) {
+            collectResultMap(resultMap.getId(), namespace, entry);
+        }
+    }
+
+    /**
+     * 收集属于该namespace的resultMap及其嵌套、discriminator引用的resultMap，引用的其他namespace的resultMap不收集
+     */
+    private void collectResultMap(String id, String namespace, Entry entry) {
+        if (id == null || !id.startsWith(namespace + DOT) || !configuration.hasResultMap(id)
+                || !entry.resultMapIds.add(id)) {
+            return;
+        }
+
+        ResultMap resultMap = configuration.getResultMap(id);
+        for (ResultMapping mapping : resultMap.getResultMappings()) {
+            collectResultMap(mapping.getNestedResultMapId(), namespace, entry);
+        }
+
+        Discriminator discriminator = resultMap.getDiscriminator();
+        if (discriminator != null) {
+            for (String caseId : discriminator.getDiscriminatorMap().values()) {
+                collectResultMap(caseId, namespace, entry);
+            }
+        }
+    }
+
+    /**
+     * namespace下的mapper文件与各类元素id
+     */
+    static final class Entry {
+        private final Set<String> resources = new HashSet<>(2);
+        private final Set<String> statementIds = new HashSet<>(16);
+        private final Set<String> keyGeneratorIds = new HashSet<>(2);
+        private final Set<String> resultMapIds = new HashSet<>(8);
+        private final Set<String> sqlFragmentIds = new HashSet<>(4);
+        private final Set<String> parameterMapIds = new HashSet<>(2);
+
+        Set<String> getResources() {
+            return Collections.unmodifiableSet(resources);
+        }
+
+        Set<String> getStatementIds() {
+            return Collections.unmodifiableSet(statementIds);
+        }
+
+        Set<String> getKeyGeneratorIds() {
+            return Collections.unmodifiableSet(keyGeneratorIds);
+        }
+
+        Set<String> getResultMapIds() {
+            return Collections.unmodifiableSet(resultMapIds);
+        }
+
+        Set<String> getSqlFragmentIds() {
+            return Collections.unmodifiableSet(sqlFragmentIds);
+        }
+
+        Set<String> getParameterMapIds() {
+            return Collections.unmodifiableSet(parameterMapIds);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) [2023] [liuguangsheng]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.liuguangsheng.galois.service.mybatis;
+
+import io.liuguangsheng.galois.utils.GaloisLog;
+import org.slf4j.Logger;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static io.liuguangsheng.galois.constants.Constant.NAMESPACE;
+
+/**
+ * MyBatis mapper文件识别，使用StAX只读取XML的序言与根元素，不解析整个文件。
+ * 根元素为mapper且带有namespace属性的文件视为mapper文件，结果按路径缓存直到文件发生变化
+ *
+ * @author liuguangsheng
+ * @since 2.0.1
+ */
+public class MapperXmlSniffer {
+
+    private static final Logger logger = new GaloisLog(MapperXmlSniffer.class);
+    private static final String ROOT_MAPPER = "mapper";
+    private final XMLInputFactory inputFactory = createInputFactory();
+    private final Map<String, Header> headers = new ConcurrentHashMap<>(64);
+
+    private static class MapperXmlSnifferHolder {
+        private static final MapperXmlSniffer instance = new MapperXmlSniffer();
+    }
+
+    private MapperXmlSniffer() {
+    }
+
+    /**
+     * Gets instance.
+     *
+     * @return the instance
+     */
+    public static MapperXmlSniffer getInstance() {
+        return MapperXmlSnifferHolder.instance;
+    }
+
+    /**
+     * 获取mapper文件的namespace
+     *
+     * @param file the file
+     * @return namespace，不是mapper文件时返回null
+     */
+    public String getNamespace(File file) {
+        String path = file.getAbsolutePath();
+        long lastModified = file.lastModified();
+        long length = file.length();
+        Header header = headers.get(path);
+
+        // 已删除的文件沿用删除前的结论
+        if (header != null && (lastModified == 0 || header.isFresh(lastModified, length))) {
+            return header.namespace;
+        }
+        if (lastModified == 0) {
+            return null;
+        }
+
+        String namespace = sniff(file);
+        headers.put(path, new Header(lastModified, length, namespace));
+        return namespace;
+    }
+
+    /**
+     * 是否mapper文件
+     *
+     * @param file the file
+     * @return the boolean
+     */
+    public boolean isMapper(File file) {
+        return getNamespace(file) != null;
+    }
+
+    private String sniff(File file) {
+        XMLStreamReader reader = null;
+
+        try (InputStream is = new BufferedInputStream(Files.newInputStream(file.toPath()))) {
+            reader = inputFactory.createXMLStreamReader(is);
+
+            while (reader.hasNext()) {
+                int event = reader.next();
+
+                if (event == XMLStreamConstants.DTD) {
+                    // <!DOCTYPE configuration ...>等其他MyBatis文档在根元素之前即可排除
+                    String doctype = reader.getText();
+                    if (doctype != null && !doctype.contains(ROOT_MAPPER)) {
+                        return null;
+                    }
+                } else if (event == XMLStreamConstants.START_ELEMENT) {
+                    if (!ROOT_MAPPER.equals(reader.getLocalName())) {
+                        return null;
+                    }
+
+                    String namespace = reader.getAttributeValue(null, NAMESPACE);
+                    return namespace == null || namespace.trim().isEmpty() ? null : namespace.trim();
+                }
+            }
+        } catch (IOException | XMLStreamException e) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Sniff xml file {} failed, treat it as non-mapper. {}", file, e.getMessage());
+            }
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException ignored) {
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        // 只需要DOCTYPE的原文，不加载外部DTD
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+        return factory;
+    }
+
+    private static class Header {
+        private final long lastModified;
+        private final long length;
+        private final String namespace;
+
+        private Header(long lastModified, long length, String namespace) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.namespace = namespace;
+        }
+
+        private boolean isFresh(long lastModified, long length) {
+            return this.lastModified == lastModified && this.length == length;
+        }
+    }
+}
@@ -24,32 +24,41 @@
 
 package io.liuguangsheng.galois.service.mybatis;
 
+import io.liuguangsheng.galois.conf.GlobalConfiguration;
 import io.liuguangsheng.galois.service.BeanReloader;
 import io.liuguangsheng.galois.service.annotation.LazyBean;
 import io.liuguangsheng.galois.service.mybatis.visitors.MyBatisConfigurationVisitor;
 import io.liuguangsheng.galois.utils.GaloisLog;
-import org.apache.ibatis.binding.MapperRegistry;
 import org.apache.ibatis.builder.BuilderException;
-import org.apache.ibatis.builder.xml.XMLMapperBuilder;
-import org.apache.ibatis.builder.xml.XMLMapperEntityResolver;
+import org.apache.ibatis.annotations.CacheNamespace;
+import org.apache.ibatis.annotations.Results;
+import org.apache.ibatis.binding.MapperProxyFactory;
+import org.apache.ibatis.builder.annotation.MapperAnnotationBuilder;
+import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.executor.keygen.SelectKeyGenerator;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.parsing.XNode;
-import org.apache.ibatis.parsing.XPathParser;
 import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSessionFactory;
 import org.slf4j.Logger;
+import org.springframework.context.ApplicationContext;
 import org.springframework.core.io.PathResource;
 import org.springframework.core.io.Resource;
 
 import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
+import static io.liuguangsheng.galois.constants.ConfConstant.RELOADER_MYBATIS_DIFF_ENABLE;
 import static io.liuguangsheng.galois.constants.Constant.*;
 
 /**
@@ -60,7 +69,15 @@ import static io.liuguangsheng.galois.constants.Constant.*;
 public class MyBatisBeanReloader implements BeanReloader<File>, MyBatisConfigurationVisitor.NecessaryMethods {
     private static final Logger logger = new GaloisLog(MyBatisBeanReloader.class);
     protected Configuration configuration;
-    private static final String NODE_MAPPER = "/mapper";
+    private ConfigurationAccessor accessor;
+    private MapperContainers containers;
+    private MapperIndex mapperIndex;
+    private final Map<String, MapperDiff> mapperDiffs = new ConcurrentHashMap<>(64);
+    private final Map<String, Set<String>> annotationResultMaps = new ConcurrentHashMap<>(16);
+    private final boolean diffEnabled = GlobalConfiguration.getInstance().getBool(RELOADER_MYBATIS_DIFF_ENABLE, true);
+    private static final String INLINE_RESULT_MAP_SUFFIX = "-Inline";
+    private static final String NESTED_RESULT_MAP_PREFIX = "mapper_resultMap[";
+    private static final String ANNOTATION_RESOURCE_SUFFIX = ".java (best guess)";
 
     private static class MyBatisBeanReloaderHolder {
         private static final MyBatisBeanReloader instance = new MyBatisBeanReloader();
@@ -75,49 +92,298 @@ public class MyBatisBeanReloader implements BeanReloader<File>, MyBatisConfigura
 
     @Override
     public void updateBean(File mapperFile) {
+        updateBean(mapperFile, MapperXmlSniffer.getInstance().getNamespace(mapperFile));
+    }
+
+    /**
+     * 按已识别出的namespace重新加载mapper文件
+     *
+     * @param mapperFile mapper file
+     * @param namespace  由{@link MapperXmlSniffer}从文件头读出的namespace
+     */
+    public synchronized void updateBean(File mapperFile, String namespace) {
+        if (namespace == null) {
+            logger.warn("File {} is not a mybatis mapper, skip reloading.", mapperFile);
+            return;
+        }
+
+        long begin = System.currentTimeMillis();
+        int parseCount = 0;
+        ConfigurationStage stage = null;
+
         try {
             Resource mapperLocation = new PathResource(mapperFile.toPath());
-            XPathParser parser = new XPathParser(mapperLocation.getInputStream(), true, configuration.getVariables(),
-                    new XMLMapperEntityResolver());
-            XNode context = parser.evalNode(NODE_MAPPER);
-            String namespace = context.getStringAttribute(NAMESPACE);
-
-            updateSingleBean(mapperLocation, namespace);
-            Set<Resource> files = getAllNamespaceFile(namespace);
-            Set<Resource> mappers = files.stream()
-                    .filter(file -> !file.toString().contains(mapperLocation.getFilename()))
-                    .collect(Collectors.toSet());
+            MapperIndex.Entry entry = mapperIndex.get(namespace);
+            List<Resource> siblings = entry == null ? new ArrayList<>() : getNamespaceResources(entry, mapperFile);
+            MapperDocument document = MapperDocument.parse(mapperLocation, configuration);
+            MapperDiff current = MapperDiff.of(document.getRoot(), namespace);
+            MapperDiff previous = mapperDiffs.get(mapperLocation.toString());
+            Cache previousCache = configuration.hasCache(namespace) ? configuration.getCache(namespace) : null;
+            // 在容器副本上完成清理与构建，失败时live Configuration保持旧版本
+            stage = ConfigurationStage.open(containers, configuration);
+            Configuration target = stage.getConfiguration();
+
+            // 首次重载没有可比较的旧版本，同一namespace分布在多个文件中时元素之间可能跨文件引用，均整体重载
+            Set<String> affected = null;
+            if (diffEnabled && accessor.isDiffSupported() && entry != null && siblings.isEmpty() && previous != null) {
+                affected = current.affectedSince(previous);
+            }
+
+            if (affected != null && diffReload(target, document, affected, entry, namespace)) {
+                stage.publish();
+                replaceCache(namespace, previousCache);
+                mapperDiffs.put(mapperLocation.toString(), current);
+                mapperIndex.update(namespace, Collections.singletonList(document));
+                logger.info("Reload mybatis mapper by namespace {} success, {} of {} elements replaced in {} ms.",
+                        namespace, affected.size(), current.size(), System.currentTimeMillis() - begin);
+                return;
+            }
 
-            for (Resource resource : mappers) {
-                updateSingleBean(resource, namespace);
+            if (entry != null) {
+                clearIndexedElements(target, entry);
             }
 
-            logger.info("Reload mybatis mapper by namespace {} success.", namespace);
+            List<MapperDocument> documents = new ArrayList<>(siblings.size() + 1);
+            Map<String, MapperDiff> diffs = new HashMap<>(siblings.size() + 1);
+            updateSingleBean(target, document, namespace);
+            diffs.put(mapperLocation.toString(), current);
+            documents.add(document);
+            parseCount += document.getParseCount();
+
+            for (Resource resource : siblings) {
+                MapperDocument sibling;
+                try {
+                    sibling = MapperDocument.parse(resource, configuration);
+                } catch (Throwable e) {
+                    logger.error("Parse mybatis mapper xml file {} fail.", resource, e);
+                    continue;
+                }
+
+                MapperDiff siblingDiff = MapperDiff.of(sibling.getRoot(), namespace);
+                updateSingleBean(target, sibling, namespace);
+                diffs.put(resource.toString(), siblingDiff);
+                documents.add(sibling);
+                parseCount += sibling.getParseCount();
+            }
+
+            stage.publish();
+            replaceCache(namespace, previousCache);
+            mapperDiffs.putAll(diffs);
+            mapperIndex.update(namespace, documents);
+
+            logger.info("Reload mybatis mapper by namespace {} success, {} files parsed {} times in {} ms.", namespace,
+                    siblings.size() + 1, parseCount, System.currentTimeMillis() - begin);
         } catch (Throwable e) {
-            logger.error("Update MyBatis bean fail.", e);
+            logger.error("Update MyBatis bean fail, keep the previous version of namespace {}.", namespace, e);
+        } finally {
+            if (stage != null) {
+                stage.close();
+            }
         }
     }
 
-    private void updateSingleBean(Resource mapperLocation, String namespace) {
+    /**
+     * 重新构建mapper接口上由注解声明的statement、resultMap与缓存，并清空接口代理的方法缓存。
+     * 调用前接口需已被重新定义，MapperAnnotationBuilder读取的是新的注解
+     *
+     * @param mapperInterface 已注册到MapperRegistry的mapper接口
+     * @return 是否重新加载成功
+     */
+    public synchronized boolean updateMapperInterface(Class<?> mapperInterface) {
+        String namespace = mapperInterface.getName();
+        long begin = System.currentTimeMillis();
+        ConfigurationStage stage = null;
 
         try {
-            XPathParser parser = new XPathParser(mapperLocation.getInputStream(), true, configuration.getVariables(),
-                    new XMLMapperEntityResolver());
-            XNode context = parser.evalNode("/mapper");
-
-            clearLoadedResources(mapperLocation);
-            clearMapperRegistry(namespace);
-            clearCachedNames(namespace);
-            clearBuildStatementFromContext(context.evalNodes("insert|update|select|delete"), namespace);
-            clearSqlElement(context.evalNodes("/mapper/sql"), namespace);
-            clearResultMapElements(context.evalNodes("/mapper/resultMap"), namespace);
-            clearParameterMapElement(context.evalNodes("/mapper/parameterMap"), namespace);
-            clearCacheElement(context.evalNode("cache"));
-            clearCacheRefElement(namespace);
-            reloadXML(mapperLocation);
+            Cache previousCache = configuration.hasCache(namespace) ? configuration.getCache(namespace) : null;
+            stage = ConfigurationStage.open(containers, configuration);
+            Configuration target = stage.getConfiguration();
+
+            clearAnnotationElements(target, mapperInterface);
+            if (mapperInterface.isAnnotationPresent(CacheNamespace.class)) {
+                clearCachedNames(target, namespace);
+            }
+            accessor.loadedResources(target).remove(mapperInterface.toString());
+
+            Set<String> resultMapsBefore = new HashSet<>(target.getResultMapNames());
+            new MapperAnnotationBuilder(target, mapperInterface).parse();
+            Set<String> resultMapsCreated = target.getResultMapNames().stream()
+                    .filter(id -> id.contains(DOT) && !resultMapsBefore.contains(id))
+                    .collect(Collectors.toSet());
+
+            stage.publish();
+            annotationResultMaps.put(namespace, resultMapsCreated);
+            replaceCache(namespace, previousCache);
+
+            // 已注入到Spring容器中的代理持有原MapperProxyFactory的方法缓存，原地清空使其重新解析statement
+            MapperProxyFactory<?> factory = (MapperProxyFactory<?>) accessor.knownMappers(
+                    configuration.getMapperRegistry()).get(mapperInterface);
+            if (factory != null) {
+                factory.getMethodCache().clear();
+            }
+
+            logger.info("Reload mybatis mapper interface {} success, {} annotation statements in {} ms.", namespace,
+                    annotationStatementIds(configuration, mapperInterface).size(),
+                    System.currentTimeMillis() - begin);
+            return true;
         } catch (Throwable e) {
-            logger.error("Reload mybatis mapper by xml file fail.", e);
+            logger.error("Reload mybatis mapper interface {} fail, keep the previous version.", namespace, e);
+            return false;
+        } finally {
+            if (stage != null) {
+                stage.close();
+            }
+        }
+    }
+
+    /**
+     * 按类名查找已注册到MapperRegistry的mapper接口
+     *
+     * @param className 类名
+     * @return mapper接口，未注册时返回null
+     */
+    public Class<?> getMapperInterface(String className) {
+        if (configuration == null) {
+            return null;
+        }
+
+        return containers.knownMapper(className);
+    }
+
+    /**
+     * 按文件名判断class文件是否可能是已注册到MapperRegistry的接口，不读取文件内容
+     *
+     * @param classFile class文件
+     * @return 文件名与任一已注册接口的类名都不相符时返回false
+     */
+    public boolean isMapperClassFile(File classFile) {
+        if (configuration == null) {
+            return false;
+        }
+
+        String fileName = classFile.getName();
+        int dot = fileName.lastIndexOf(DOT);
+        return containers.isKnownMapperFile(dot < 0 ? fileName : fileName.substring(0, dot));
+    }
+
+    /**
+     * 清理mapper接口上次由注解构建的元素。statement按resource识别；resultMap按MapperAnnotationBuilder的命名规则，
+     * 以及上次重新加载时记录下的id识别
+     */
+    private void clearAnnotationElements(Configuration target, Class<?> mapperInterface) {
+        String namespace = mapperInterface.getName();
+        Map<String, Object> mappedStatements = accessor.mappedStatements(target);
+
+        for (String id : annotationStatementIds(target, mapperInterface)) {
+            String keyStatementId = id + SelectKeyGenerator.SELECT_KEY_SUFFIX;
+            mappedStatements.remove(id);
+            mappedStatements.remove(keyStatementId);
+            target.getKeyGeneratorNames().remove(keyStatementId);
+            target.getResultMapNames().remove(id + INLINE_RESULT_MAP_SUFFIX);
+            target.getResultMapNames().remove(keyStatementId + INLINE_RESULT_MAP_SUFFIX);
+        }
+
+        Set<String> prefixes = new HashSet<>();
+        for (Method method : mapperInterface.getMethods()) {
+            prefixes.add(namespace + DOT + method.getName() + HYPHEN);
+            Results results = method.getAnnotation(Results.class);
+            if (results != null && !results.id().isEmpty()) {
+                target.getResultMapNames().remove(namespace + DOT + results.id());
+                prefixes.add(namespace + DOT + results.id() + HYPHEN);
+            }
+        }
+
+        target.getResultMapNames().removeAll(annotationResultMaps.getOrDefault(namespace, Collections.emptySet()));
+        target.getResultMapNames().removeIf(id -> prefixes.stream().anyMatch(id::startsWith));
+    }
+
+    private Set<String> annotationStatementIds(Configuration target, Class<?> mapperInterface) {
+        String resource = mapperInterface.getName().replace(DOT, SLASH) + ANNOTATION_RESOURCE_SUFFIX;
+        return accessor.mappedStatements(target).values().stream()
+                .filter(value -> value instanceof MappedStatement)
+                .map(value -> (MappedStatement) value)
+                .filter(statement -> resource.equals(statement.getResource()))
+                .map(MappedStatement::getId)
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * 用已解析的mapper文件清理旧配置并重新构建，异常向上抛出，放弃本次重载
+     *
+     * @param target    the configuration stage
+     * @param document  mapper document
+     * @param namespace namespace
+     */
+    private void updateSingleBean(Configuration target, MapperDocument document, String namespace)
+            throws IOException {
+        XNode context = document.getRoot();
+
+        clearLoadedResources(target, document.getResource());
+        clearMapperRegistry(target, namespace);
+        clearCachedNames(target, namespace);
+        clearBuildStatementFromContext(target, context.evalNodes("insert|update|select|delete"), namespace);
+        clearSqlElement(target, context.evalNodes("/mapper/sql"), namespace);
+        clearResultMapElements(target, context.evalNodes("/mapper/resultMap"), namespace);
+        clearParameterMapElement(target, context.evalNodes("/mapper/parameterMap"), namespace);
+        clearCacheRefElement(target, namespace);
+        document.build(target);
+    }
+
+    /**
+     * 差异重载，只移除并重新构建发生变化的元素及其依赖者
+     *
+     * @param target    the configuration stage
+     * @param document  新版本的mapper文件
+     * @param affected  需要替换的元素
+     * @param entry     namespace的索引项
+     * @param namespace namespace
+     * @return 无法差异重载时返回false，由调用方整体重载
+     */
+    private boolean diffReload(Configuration target, MapperDocument document, Set<String> affected,
+                               MapperIndex.Entry entry, String namespace) throws ReflectiveOperationException {
+        Map<String, Object> mappedStatements = accessor.mappedStatements(target);
+        MapperDiff current = MapperDiff.of(document.getRoot(), namespace);
+        Set<String> rebuild = new HashSet<>();
+
+        for (String key : affected) {
+            String baseId = MapperDiff.idOf(key);
+            String id = applyCurrentNamespace(baseId, false, namespace);
+
+            if (key.startsWith(MapperDiff.STATEMENT)) {
+                String keyStatementId = id + SelectKeyGenerator.SELECT_KEY_SUFFIX;
+                mappedStatements.remove(id);
+                mappedStatements.remove(keyStatementId);
+                target.getKeyGeneratorNames().remove(keyStatementId);
+                target.getResultMapNames().remove(id + INLINE_RESULT_MAP_SUFFIX);
+                target.getResultMapNames().remove(keyStatementId + INLINE_RESULT_MAP_SUFFIX);
+            } else if (key.startsWith(MapperDiff.SQL)) {
+                target.getSqlFragments().remove(id);
+            } else if (key.startsWith(MapperDiff.RESULT_MAP)) {
+                String nestedPrefix = namespace + DOT + NESTED_RESULT_MAP_PREFIX + baseId + "]";
+                target.getResultMapNames().remove(id);
+                entry.getResultMapIds().stream()
+                        .filter(nested -> nested.startsWith(nestedPrefix))
+                        .forEach(target.getResultMapNames()::remove);
+            }
+
+            if (current.contains(key)) {
+                rebuild.add(key);
+            }
+        }
+
+        if (rebuild.isEmpty()) {
+            return true;
+        }
+
+        clearLoadedResources(target, document.getResource());
+        if (!document.buildElements(target, rebuild)) {
+            return false;
         }
+        if (current.hasCache()) {
+            // buildElements用指向自身的cache-ref复用已有缓存，不需要保留这条引用
+            clearCacheRefElement(target, namespace);
+        }
+        return true;
     }
 
     @Override
@@ -135,114 +401,126 @@ public class MyBatisBeanReloader implements BeanReloader<File>, MyBatisConfigura
         return true;
     }
 
-    private Set<Resource> getAllNamespaceFile(String namespace) {
-        try {
-            Field mappedStatementsField = configuration.getClass().getDeclaredField(MAPPED_STATEMENTS);
-            mappedStatementsField.setAccessible(true);
-            Map<String, Object> mappedStatements = (Map<String, Object>) mappedStatementsField.get(configuration);
-
-            return mappedStatements.values()
-                    .stream()
-                    .filter(statement -> statement.getClass().equals(MappedStatement.class))
-                    .map(statement -> (MappedStatement) statement)
-                    .filter(statement -> statement.getId().contains(namespace))
-                    .map(statement -> {
-                        String tmpPath = statement.getResource();
-                        if (tmpPath.contains("[")) {
-                            tmpPath = tmpPath.substring(tmpPath.indexOf('[') + 1, tmpPath.lastIndexOf(']'));
-                        }
-                        return new PathResource(tmpPath);
-                    })
-                    .collect(Collectors.toSet());
-        } catch (Throwable e) {
-            logger.error("Get all mapper in namespace {} fail.", namespace, e);
+    /**
+     * namespace下除当前文件外的其他mapper文件，只处理能定位到本地文件的资源
+     */
+    private List<Resource> getNamespaceResources(MapperIndex.Entry entry, File mapperFile) {
+        List<Resource> result = new ArrayList<>();
+
+        for (String description : entry.getResources()) {
+            if (description == null || !description.contains("[")) {
+                continue;
+            }
+
+            File file = new File(description.substring(description.indexOf('[') + 1, description.lastIndexOf(']')));
+            // 同名文件视为被修改文件的另一份副本（如源码目录与编译输出目录），不作为同namespace的其他文件
+            if (file.isFile() && !file.getName().equals(mapperFile.getName())) {
+                result.add(new PathResource(file.toPath()));
+            }
         }
 
-        return new HashSet<>();
+        return result;
     }
 
-    private void reloadXML(Resource mapperLocation) throws IOException {
-        XMLMapperBuilder builder = new XMLMapperBuilder(mapperLocation.getInputStream(), configuration,
-                mapperLocation.toString(), configuration.getSqlFragments());
-        builder.parse();
+    /**
+     * 按索引清理namespace下已加载的全部元素，包括本次修改中已从文件里删除的元素
+     */
+    private void clearIndexedElements(Configuration target, MapperIndex.Entry entry) {
+        entry.getStatementIds().forEach(accessor.mappedStatements(target)::remove);
+        target.getKeyGeneratorNames().removeAll(entry.getKeyGeneratorIds());
+        target.getResultMapNames().removeAll(entry.getResultMapIds());
+        target.getParameterMapNames().removeAll(entry.getParameterMapIds());
+        entry.getSqlFragmentIds().forEach(target.getSqlFragments()::remove);
     }
 
-    @SuppressWarnings("unchecked")
-    private void clearLoadedResources(Resource mapperLocation) {
-        try {
-            Field loadedResourcesField = configuration.getClass().getDeclaredField(LOADED_RESOURCES);
-            loadedResourcesField.setAccessible(true);
-            Set<String> loadedResources = (Set<String>) loadedResourcesField.get(configuration);
-            loadedResources.remove(mapperLocation.toString());
-        } catch (NoSuchFieldException | IllegalAccessException e) {
-            throw new RuntimeException(e);
-        }
+    private void clearLoadedResources(Configuration target, Resource mapperLocation) {
+        accessor.loadedResources(target).remove(mapperLocation.toString());
     }
 
-    @SuppressWarnings("unchecked")
-    private void clearCacheRefElement(String namespace) {
-        try {
-            Field cacheRefMapField = configuration.getClass().getDeclaredField(CACHE_REF_MAP);
-            cacheRefMapField.setAccessible(true);
-            Map<String, String> cacheRefMap = (Map<String, String>) cacheRefMapField.get(configuration);
-            cacheRefMap.remove(namespace);
-        } catch (NoSuchFieldException | IllegalAccessException e) {
-            throw new RuntimeException(e);
-        }
+    private void clearCacheRefElement(Configuration target, String namespace) {
+        accessor.cacheRefMap(target).remove(namespace);
     }
 
-    private void clearCacheElement(XNode cache) {
-        // nothing to do
+    private void clearMapperRegistry(Configuration target, String namespace) {
+        accessor.knownMappers(target.getMapperRegistry()).entrySet().removeIf(entry -> entry.getKey().getName().equals(namespace));
     }
 
-    @SuppressWarnings("unchecked")
-    private void clearMapperRegistry(String namespace) throws NoSuchFieldException, IllegalAccessException {
-        Field field = MapperRegistry.class.getDeclaredField(KNOWN_MAPPERS);
-        field.setAccessible(true);
-        Map<Class<?>, Object> mapConfig = (Map<Class<?>, Object>) field.get(configuration.getMapperRegistry());
-        mapConfig.entrySet().removeIf(entry -> entry.getKey().getName().contains(namespace));
+    private void clearCachedNames(Configuration target, String namespace) {
+        if (!target.hasCache(namespace)) {
+            return;
+        }
+
+        // StrictMap同时以namespace的最后一段登记了缓存，一并移除，避免旧缓存对象被引用而无法回收
+        Cache cache = target.getCache(namespace);
+        String shortName = namespace.substring(namespace.lastIndexOf(DOT) + 1);
+        target.getCacheNames().remove(namespace);
+        if (accessor.caches(target).getOrDefault(shortName, null) == cache) {
+            target.getCacheNames().remove(shortName);
+        }
     }
 
-    private void clearCachedNames(String namespace) {
-        configuration.getCacheNames().remove(namespace);
+    /**
+     * 清空namespace原有的二级缓存。重新加载创建了新缓存时，通过cache-ref引用它的其他namespace的statement改用新缓存，
+     * 并沿用旧缓存的命中统计；与该namespace无关的缓存保持不变
+     *
+     * @param namespace namespace
+     * @param previous  重新加载前namespace拥有的缓存
+     */
+    private void replaceCache(String namespace, Cache previous) {
+        if (previous == null) {
+            return;
+        }
+
+        Cache current = configuration.hasCache(namespace) ? configuration.getCache(namespace) : null;
+        Set<String> dependents = new HashSet<>();
+
+        if (current != null && current != previous) {
+            accessor.copyStatistics(previous, current);
+            for (Object value : accessor.mappedStatements(configuration).values()) {
+                if (value instanceof MappedStatement && ((MappedStatement) value).getCache() == previous) {
+                    MappedStatement statement = (MappedStatement) value;
+                    accessor.setStatementCache(statement, current);
+                    dependents.add(statement.getId().substring(0, statement.getId().lastIndexOf(DOT)));
+                }
+            }
+        }
+
+        previous.clear();
+        logger.info("Flush mybatis cache of namespace {}{}.", namespace,
+                dependents.isEmpty() ? "" : ", referenced by " + dependents);
     }
 
-    @SuppressWarnings({"unchecked"})
-    private void clearParameterMapElement(List<XNode> list, String namespace) throws IllegalAccessException,
-            NoSuchFieldException {
+    private void clearParameterMapElement(Configuration target, List<XNode> list, String namespace) {
+        Map<String, Object> parameterMaps = accessor.parameterMaps(target);
 
         String baseId, namespaceId;
         for (XNode parameterMapNode : list) {
             baseId = parameterMapNode.getStringAttribute(ID);
             namespaceId = applyCurrentNamespace(baseId, false, namespace);
-            Field parameterMaps = Configuration.class.getField(PARAMETER_MAPS);
-            parameterMaps.setAccessible(true);
-            ((Map<String, Object>) parameterMaps.get(configuration)).remove(namespaceId);
+            parameterMaps.remove(namespaceId);
         }
     }
 
-    private void clearResultMapElements(List<XNode> list, String namespace) {
+    private void clearResultMapElements(Configuration target, List<XNode> list, String namespace) {
         String baseId, namespaceId;
         for (XNode resultMapNode : list) {
             baseId = resultMapNode.getStringAttribute(ID, resultMapNode.getValueBasedIdentifier());
             namespaceId = applyCurrentNamespace(baseId, false, namespace);
-            configuration.getResultMapNames().remove(baseId);
-            configuration.getResultMapNames().remove(namespaceId);
+            target.getResultMapNames().remove(baseId);
+            target.getResultMapNames().remove(namespaceId);
         }
     }
 
-    private void clearBuildStatementFromContext(List<XNode> list, String namespace) {
+    private void clearBuildStatementFromContext(Configuration target, List<XNode> list, String namespace) {
         try {
             String baseId, namespaceId, keyStatementId;
-            Field mappedStatementsField = configuration.getClass().getDeclaredField(MAPPED_STATEMENTS);
-            mappedStatementsField.setAccessible(true);
-            Map<String, Object> mappedStatements = (Map<String, Object>) mappedStatementsField.get(configuration);
+            Map<String, Object> mappedStatements = accessor.mappedStatements(target);
 
             for (XNode context : list) {
                 baseId = context.getStringAttribute(ID);
                 namespaceId = applyCurrentNamespace(baseId, false, namespace);
                 keyStatementId = applyCurrentNamespace(baseId + SelectKeyGenerator.SELECT_KEY_SUFFIX, true, namespace);
-                configuration.getKeyGeneratorNames().remove(keyStatementId);
+                target.getKeyGeneratorNames().remove(keyStatementId);
                 mappedStatements.remove(namespaceId);
             }
         } catch (Throwable e) {
@@ -250,13 +528,13 @@ public class MyBatisBeanReloader implements BeanReloader<File>, MyBatisConfigura
         }
     }
 
-    private void clearSqlElement(List<XNode> list, String namespace) {
+    private void clearSqlElement(Configuration target, List<XNode> list, String namespace) {
         String baseId, namespaceId;
         for (XNode context : list) {
             baseId = context.getStringAttribute(ID);
             namespaceId = applyCurrentNamespace(baseId, false, namespace);
-            configuration.getSqlFragments().remove(baseId);
-            configuration.getSqlFragments().remove(namespaceId);
+            target.getSqlFragments().remove(baseId);
+            target.getSqlFragments().remove(namespaceId);
         }
     }
 
@@ -265,8 +543,44 @@ public class MyBatisBeanReloader implements BeanReloader<File>, MyBatisConfigura
     }
 
     @Override
-    public void setConfiguration(Configuration configuration) {
+    public synchronized void setConfiguration(Configuration configuration) {
+        // 已捕获的实例再次传入时保留原有容器视图与索引
+        if (configuration == this.configuration) {
+            return;
+        }
+
+        try {
+            this.accessor = ConfigurationAccessor.of(configuration.getClass());
+            this.containers = MapperContainers.install(accessor, configuration);
+        } catch (IllegalStateException e) {
+            logger.error("Disable mybatis mapper reloading. {}", e.getMessage(), e);
+            return;
+        }
+
         this.configuration = configuration;
+        this.mapperIndex = new MapperIndex(configuration, accessor);
+    }
+
+    /**
+     * attach模式下从已有的SqlSessionFactory中获取Configuration
+     *
+     * @param context the application context
+     */
+    public void captureConfiguration(ApplicationContext context) {
+        if (configuration != null) {
+            return;
+        }
+
+        context.getBeansOfType(SqlSessionFactory.class)
+                .values()
+                .stream()
+                .findFirst()
+                .map(SqlSessionFactory::getConfiguration)
+                .ifPresent(this::setConfiguration);
+
+        if (configuration == null) {
+            logger.warn("Can not find any SqlSessionFactory in context {}.", context.getId());
+        }
     }
 
     public static String applyCurrentNamespace(String base, boolean isReference, String namespace) {
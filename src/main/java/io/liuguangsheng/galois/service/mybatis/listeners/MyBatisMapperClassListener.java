@@ -0,0 +1,142 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) [2023] [liuguangsheng]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.liuguangsheng.galois.service.mybatis.listeners;
+
+import io.liuguangsheng.galois.constants.FileType;
+import io.liuguangsheng.galois.service.ClassDigestRegistry;
+import io.liuguangsheng.galois.service.annotation.LazyBean;
+import io.liuguangsheng.galois.service.monitor.FileChangedListener;
+import io.liuguangsheng.galois.service.mybatis.MyBatisAgentService;
+import io.liuguangsheng.galois.service.mybatis.MyBatisBeanReloader;
+import io.liuguangsheng.galois.utils.ClassUtil;
+import io.liuguangsheng.galois.utils.FileUtil;
+import io.liuguangsheng.galois.utils.GaloisLog;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.instrument.ClassDefinition;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * MyBatis的mapper接口class文件变更监听处理，只处理已注册到MapperRegistry的接口。
+ * 重新定义接口后，按新的注解重新构建该接口的statement
+ *
+ * @author liuguangsheng
+ * @since 2.0.1
+ */
+@LazyBean(value = "MyBatisMapperClassListener", manager = MyBatisAgentService.class)
+public class MyBatisMapperClassListener implements FileChangedListener {
+
+    private static final Logger logger = new GaloisLog(MyBatisMapperClassListener.class);
+    private static final MyBatisBeanReloader reloader = MyBatisBeanReloader.getInstance();
+    private static final ClassDigestRegistry digestRegistry = ClassDigestRegistry.getInstance();
+    private final Map<String, String> statementDigests = new ConcurrentHashMap<>(16);
+
+    @Override
+    public Set<FileType> getFileTypes() {
+        return Collections.singleton(FileType.CLASS_FILE);
+    }
+
+    @Override
+    public boolean isSuitable(File file) {
+        if (!reloader.isMapperClassFile(file)) {
+            return false;
+        }
+
+        try {
+            return reloader.getMapperInterface(ClassUtil.getClassNameFromClass(file)) != null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void createdHandle(File file) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("MyBatisMapperClassListener detect file created: {}", file.getName());
+        }
+
+        fileChangedHandle(file);
+    }
+
+    @Override
+    public void modifiedHandle(File file) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("MyBatisMapperClassListener detect file modified: {}", file.getName());
+        }
+
+        fileChangedHandle(file);
+    }
+
+    @Override
+    public void deletedHandle(File file) {
+
+    }
+
+    /**
+     * file changed handle
+     *
+     * @param classFile classFile
+     */
+    private void fileChangedHandle(File classFile) {
+        try {
+            Class<?> mapperInterface = reloader.getMapperInterface(ClassUtil.getClassNameFromClass(classFile));
+            if (mapperInterface == null) {
+                return;
+            }
+
+            String className = mapperInterface.getName();
+            byte[] classBytes = FileUtil.readFile(classFile);
+            String digest = digestRegistry.digestOf(classBytes);
+            if (!digestRegistry.isUnchanged(className, digest)) {
+                ClassUtil.getInstrumentation().redefineClasses(new ClassDefinition(mapperInterface, classBytes));
+                digestRegistry.update(className, digest);
+            }
+
+            // 接口可能已被SpringBeanListener重新定义，因此按statement构建时所用的版本判断，而不是按当前类定义判断
+            String built = statementDigests.get(className);
+            if (built == null ? digestRegistry.isLoadedVersion(className, digest) : built.equals(digest)) {
+                logger.debug("Mapper interface {} is unchanged, skip reloading.", className);
+                return;
+            }
+
+            if (reloader.updateMapperInterface(mapperInterface)) {
+                statementDigests.put(className, digest);
+            }
+        } catch (Throwable e) {
+            logger.error("Reload mybatis mapper interface by class file {} fail.", classFile.getName(), e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MyBatisMapperClassListener";
+    }
+}
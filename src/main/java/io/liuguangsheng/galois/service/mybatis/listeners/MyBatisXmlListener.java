@@ -27,19 +27,15 @@ package io.liuguangsheng.galois.service.mybatis.listeners;
 import io.liuguangsheng.galois.constants.FileType;
 import io.liuguangsheng.galois.service.annotation.LazyBean;
 import io.liuguangsheng.galois.service.monitor.FileChangedListener;
+import io.liuguangsheng.galois.service.mybatis.MapperXmlSniffer;
 import io.liuguangsheng.galois.service.mybatis.MyBatisAgentService;
 import io.liuguangsheng.galois.service.mybatis.MyBatisBeanReloader;
-import io.liuguangsheng.galois.utils.FileUtil;
 import io.liuguangsheng.galois.utils.GaloisLog;
 import org.slf4j.Logger;
-import org.w3c.dom.Document;
-import org.w3c.dom.DocumentType;
-import org.xml.sax.InputSource;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.util.Collections;
+import java.util.Set;
 
 
 /**
@@ -51,31 +47,18 @@ import java.io.File;
 @LazyBean(value = "MyBatisXmlListener", manager = MyBatisAgentService.class)
 public class MyBatisXmlListener implements FileChangedListener {
 
-    private static final String DOC_TYPE_MAPPER = "mapper";
     private static final Logger logger = new GaloisLog(MyBatisXmlListener.class);
     private static final MyBatisBeanReloader reloader = MyBatisBeanReloader.getInstance();
+    private static final MapperXmlSniffer sniffer = MapperXmlSniffer.getInstance();
 
     @Override
-    public boolean isSuitable(File file) {
-        boolean fileTypeCheck = FileUtil.matchFileType(file, FileType.XML_FILE);
-
-        if (!fileTypeCheck) {
-            return false;
-        }
+    public Set<FileType> getFileTypes() {
+        return Collections.singleton(FileType.XML_FILE);
+    }
 
-        // check xml file node contains mapper
-        try {
-            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-            dbf.setValidating(false);
-            DocumentBuilder db = dbf.newDocumentBuilder();
-            db.setEntityResolver((p, s) -> new InputSource(new ByteArrayInputStream(new byte[0])));
-            Document document = db.parse(file);
-            DocumentType documentType = document.getDoctype();
-            return documentType != null && documentType.toString().contains(DOC_TYPE_MAPPER);
-        } catch (Throwable e) {
-            logger.error("Parse xml file failed. Check its file type.", e);
-            return false;
-        }
+    @Override
+    public boolean isSuitable(File file) {
+        return sniffer.isMapper(file);
     }
 
     @Override
@@ -84,7 +67,7 @@ public class MyBatisXmlListener implements FileChangedListener {
             logger.debug("MybatisXmlListener detect file created: {}", file.getName());
         }
 
-        reloader.updateBean(file);
+        reloader.updateBean(file, sniffer.getNamespace(file));
     }
 
     @Override
@@ -93,7 +76,7 @@ public class MyBatisXmlListener implements FileChangedListener {
             logger.debug("MybatisXmlListener detect file modified: {}", file.getName());
         }
 
-        reloader.updateBean(file);
+        reloader.updateBean(file, sniffer.getNamespace(file));
     }
 
     @Override
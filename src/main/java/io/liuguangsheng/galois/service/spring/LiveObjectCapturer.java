@@ -0,0 +1,128 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) [2023] [liuguangsheng]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.liuguangsheng.galois.service.spring;
+
+import io.liuguangsheng.galois.service.mybatis.MyBatisAgentService;
+import io.liuguangsheng.galois.service.mybatis.MyBatisBeanReloader;
+import io.liuguangsheng.galois.utils.GaloisLog;
+import org.slf4j.Logger;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.servlet.context.AnnotationConfigServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.ClassPathBeanDefinitionScanner;
+import org.springframework.context.support.LiveBeansView;
+
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * attach模式下，应用早已启动完成，构造方法中的埋点不会再被执行。这里从SpringBoot持有的静态根对象出发，沿对象引用找到
+ * 已经存在的ApplicationContext、ClassPathBeanDefinitionScanner以及MyBatis的Configuration
+ *
+ * @author liuguangsheng
+ * @since 2.0.1
+ */
+public class LiveObjectCapturer {
+
+    private static final Logger logger = new GaloisLog(LiveObjectCapturer.class);
+    private static final String SHUTDOWN_HOOK = "shutdownHook";
+    private static final String CONTEXTS = "contexts";
+    private static final String APPLICATION_CONTEXTS = "applicationContexts";
+    private static final String SCANNER = "scanner";
+
+    private LiveObjectCapturer() {
+    }
+
+    /**
+     * capture live objects and hand them to bean reloaders
+     *
+     * @return whether an application context had been captured
+     */
+    public static boolean capture() {
+        Set<ConfigurableApplicationContext> contexts = findContexts();
+        SpringBeanReloader springBeanReloader = SpringBeanReloader.getInstance();
+
+        for (ConfigurableApplicationContext context : contexts) {
+            if (!(context instanceof AnnotationConfigServletWebServerApplicationContext) || !context.isActive()) {
+                continue;
+            }
+
+            AnnotationConfigServletWebServerApplicationContext webContext =
+                    (AnnotationConfigServletWebServerApplicationContext) context;
+            springBeanReloader.setContext(webContext);
+            springBeanReloader.setScanner((ClassPathBeanDefinitionScanner) readField(webContext,
+                    AnnotationConfigServletWebServerApplicationContext.class, SCANNER));
+
+            if (MyBatisAgentService.getInstance().isSuitable()) {
+                MyBatisBeanReloader.getInstance().captureConfiguration(webContext);
+            }
+
+            logger.info("Captured live application context {}.", webContext.getId());
+            return true;
+        }
+
+        logger.warn("Can not find any live servlet web application context in {} contexts.", contexts.size());
+        return false;
+    }
+
+    /**
+     * SpringBoot 2.5+在SpringApplication.shutdownHook中登记了所有context；更早的版本在开启了LiveBeansView时可以从
+     * LiveBeansView中取得
+     */
+    @SuppressWarnings("unchecked")
+    private static Set<ConfigurableApplicationContext> findContexts() {
+        Set<ConfigurableApplicationContext> result = new LinkedHashSet<>(4);
+
+        Object shutdownHook = readField(null, SpringApplication.class, SHUTDOWN_HOOK);
+        if (shutdownHook != null) {
+            Object contexts = readField(shutdownHook, shutdownHook.getClass(), CONTEXTS);
+            if (contexts instanceof Collection) {
+                result.addAll((Collection<ConfigurableApplicationContext>) contexts);
+            }
+        }
+
+        Object liveContexts = readField(null, LiveBeansView.class, APPLICATION_CONTEXTS);
+        if (liveContexts instanceof Collection) {
+            result.addAll((Collection<ConfigurableApplicationContext>) liveContexts);
+        }
+
+        return result;
+    }
+
+    private static Object readField(Object target, Class<?> clazz, String fieldName) {
+        try {
+            Field field = clazz.getDeclaredField(fieldName);
+            field.setAccessible(true);
+            Object value = field.get(target);
+            // 集合可能正在被其它线程修改，这里只取一份浅拷贝
+            return value instanceof Collection ? new LinkedHashSet<>((Collection<?>) value) : value;
+        } catch (NoSuchFieldException | IllegalAccessException | RuntimeException e) {
+            logger.debug("Read field {} of {} fail.", fieldName, clazz.getName());
+            return null;
+        }
+    }
+}
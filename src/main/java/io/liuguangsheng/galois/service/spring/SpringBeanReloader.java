@@ -34,15 +34,21 @@ import org.springframework.beans.factory.support.DefaultListableBeanFactory;
 import org.springframework.boot.web.servlet.context.AnnotationConfigServletWebServerApplicationContext;
 import org.springframework.context.annotation.ClassPathBeanDefinitionScanner;
 import org.springframework.stereotype.Controller;
+import org.springframework.util.ClassUtils;
 import org.springframework.util.ReflectionUtils;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.servlet.handler.AbstractHandlerMethodMapping;
+import org.springframework.web.servlet.mvc.method.RequestMappingInfo;
 import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 import static io.liuguangsheng.galois.service.spring.visitors.HandlerMethodMappingVisitor.UPDATE_HANDLER_METHODS;
 
@@ -56,6 +62,7 @@ public class SpringBeanReloader implements BeanReloader<Class<?>>, ApplicationCo
         BeanDefinitionScannerVisitor.NecessaryMethods {
 
     private static final Logger logger = new GaloisLog(SpringBeanReloader.class);
+    private static final String DETECT_HANDLER_METHODS = "detectHandlerMethods";
     /**
      * The Scanner.
      */
@@ -137,10 +144,33 @@ public class SpringBeanReloader implements BeanReloader<Class<?>>, ApplicationCo
     private void updateRequestMapping(Object bean)
             throws NoSuchMethodException, InvocationTargetException, IllegalAccessException {
         RequestMappingHandlerMapping handlerMapping = getContext().getBean(RequestMappingHandlerMapping.class);
-        Method updateHandlerMethods = handlerMapping.getClass().getMethod(UPDATE_HANDLER_METHODS, Object.class);
         // 清空method缓存，避免获取到带有旧注解value的mapping方法
         ReflectionUtils.clearCache();
-        updateHandlerMethods.invoke(handlerMapping, bean);
+
+        Method updateHandlerMethods = ReflectionUtils.findMethod(handlerMapping.getClass(), UPDATE_HANDLER_METHODS,
+                Object.class);
+        if (updateHandlerMethods != null) {
+            updateHandlerMethods.invoke(handlerMapping, bean);
+            return;
+        }
+
+        // attach模式下HandlerMethodMappingVisitor无法新增方法，这里通过反射完成同样的工作
+        Class<?> userType = ClassUtils.getUserClass(bean.getClass());
+        List<RequestMappingInfo> oldMappings = handlerMapping.getHandlerMethods()
+                .entrySet()
+                .stream()
+                .filter(entry -> userType.equals(entry.getValue().getBeanType()))
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+        oldMappings.forEach(handlerMapping::unregisterMapping);
+
+        Method detectHandlerMethods = ReflectionUtils.findMethod(AbstractHandlerMethodMapping.class,
+                DETECT_HANDLER_METHODS, Object.class);
+        if (detectHandlerMethods == null) {
+            throw new NoSuchMethodException(DETECT_HANDLER_METHODS);
+        }
+        ReflectionUtils.makeAccessible(detectHandlerMethods);
+        detectHandlerMethods.invoke(handlerMapping, bean);
     }
 
     /**
@@ -206,6 +236,16 @@ public class SpringBeanReloader implements BeanReloader<Class<?>>, ApplicationCo
         return context;
     }
 
+    /**
+     * 应用的类加载器，尚未捕获到上下文时使用galois自身的类加载器
+     *
+     * @return the class loader
+     */
+    public ClassLoader getClassLoader() {
+        ClassLoader classLoader = context == null ? null : context.getClassLoader();
+        return classLoader == null ? SpringBeanReloader.class.getClassLoader() : classLoader;
+    }
+
     /**
      * Sets context.
      *
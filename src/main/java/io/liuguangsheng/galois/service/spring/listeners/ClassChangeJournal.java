@@ -0,0 +1,357 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) [2023] [liuguangsheng]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.liuguangsheng.galois.service.spring.listeners;
+
+import io.liuguangsheng.galois.conf.GlobalConfiguration;
+import io.liuguangsheng.galois.utils.GaloisLog;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+import static io.liuguangsheng.galois.constants.ConfConstant.CLASS_JOURNAL_CLASS_TTL;
+import static io.liuguangsheng.galois.constants.ConfConstant.CLASS_JOURNAL_MAX_ENTRIES;
+import static io.liuguangsheng.galois.constants.ConfConstant.CLASS_JOURNAL_SOURCE_TTL;
+
+/**
+ * 源码变动与class文件变动的关联日志，以顶层类名为key。
+ * <p>
+ * 两类事件到达的先后顺序不固定：先到达的一方记录在日志中，后到达的一方消费这条记录并触发重新加载。
+ * 每条记录带有时间戳，源码变动在编译失败等情况下等不到class文件时，超过有效期后被丢弃；
+ * 没有源码变动的class文件（如整体重新编译）只短暂保留。记录数有上限，超出时先淘汰过期记录，再淘汰最早的记录。
+ *
+ * @author liuguangsheng
+ * @since 2.0.1
+ */
+public class ClassChangeJournal {
+
+    private static final Logger logger = new GaloisLog(ClassChangeJournal.class);
+    private static final GlobalConfiguration config = GlobalConfiguration.getInstance();
+    private final long sourceTtl = Math.max(0, config.getLong(CLASS_JOURNAL_SOURCE_TTL, 600000));
+    private final long classTtl = Math.max(0, config.getLong(CLASS_JOURNAL_CLASS_TTL, 10000));
+    private final int maxEntries = Math.max(16, config.getInt(CLASS_JOURNAL_MAX_ENTRIES, 4096));
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>(64);
+    /**
+     * 进程内编译完成的顶层类及编译时间，外部构建随后为同一次修改写出的class文件不再记录
+     */
+    private final Map<String, Long> compiledClasses = new ConcurrentHashMap<>(16);
+    private final LongAdder matchedCount = new LongAdder();
+    private final LongAdder expiredCount = new LongAdder();
+    private final LongAdder evictedCount = new LongAdder();
+    private final AtomicLong nextSweep = new AtomicLong();
+    /**
+     * 源码变动晚于class文件到达时的处理者，参数为顶层类名与其class文件
+     */
+    private volatile BiConsumer<String, File> lateSourceHandler;
+    /**
+     * 源码已在进程内编译完成时的处理者
+     */
+    private volatile CompiledHandler compiledHandler;
+
+    private static class ClassChangeJournalHolder {
+        private static final ClassChangeJournal instance = new ClassChangeJournal();
+    }
+
+    private ClassChangeJournal() {
+    }
+
+    /**
+     * Gets instance.
+     *
+     * @return the instance
+     */
+    public static ClassChangeJournal getInstance() {
+        return ClassChangeJournalHolder.instance;
+    }
+
+    /**
+     * 设置源码变动晚于class文件到达时的处理者
+     *
+     * @param handler 参数为顶层类名与其class文件
+     */
+    public void setLateSourceHandler(BiConsumer<String, File> handler) {
+        this.lateSourceHandler = handler;
+    }
+
+    /**
+     * 设置源码已在进程内编译完成时的处理者
+     *
+     * @param handler the handler
+     */
+    public void setCompiledHandler(CompiledHandler handler) {
+        this.compiledHandler = handler;
+    }
+
+    /**
+     * 源码已在进程内编译完成，无需再等待class文件。移除这些类的待匹配记录；外部构建的class文件尚未到达时，
+     * class有效期内为同一次修改写出的class文件不再记录，避免下一次修改进程内编译失败时匹配到这份旧的class文件
+     *
+     * @param classNames  顶层类名
+     * @param classBytes  编译出的类名到字节码
+     * @param classLoader 这些类所在的应用类加载器
+     * @return 是否已交给处理者
+     */
+    public boolean sourceCompiled(Set<String> classNames, Map<String, byte[]> classBytes, ClassLoader classLoader) {
+        CompiledHandler handler = compiledHandler;
+        if (handler == null) {
+            return false;
+        }
+
+        long now = System.currentTimeMillis();
+        for (String className : classNames) {
+            Entry pending = entries.remove(className);
+            // 外部构建的class文件已先到达并被这里移除时，不会再有属于这次修改的class文件，不再跳过下一次变动
+            if (pending != null && pending.kind == Kind.CLASS && !isExpired(pending, now)) {
+                compiledClasses.remove(className);
+            } else {
+                compiledClasses.put(className, now);
+            }
+        }
+        matchedCount.add(classNames.size());
+        handler.accept(classNames, classBytes, classLoader);
+        return true;
+    }
+
+    /**
+     * 记录源码变动。该类的class文件已先到达时，消费该记录并交给{@link #setLateSourceHandler(BiConsumer)}处理
+     *
+     * @param className 顶层类名
+     */
+    public void sourceChanged(String className) {
+        long now = System.currentTimeMillis();
+        AtomicReference<Entry> matched = new AtomicReference<>();
+
+        entries.compute(className, (name, entry) -> {
+            if (entry != null && entry.kind == Kind.CLASS && !isExpired(entry, now)) {
+                matched.set(entry);
+                return null;
+            }
+            return new Entry(Kind.SOURCE, now, null);
+        });
+
+        Entry entry = matched.get();
+        if (entry == null) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("记录到类{}源码发生变动.", className);
+            }
+            trim(now);
+            return;
+        }
+
+        matchedCount.increment();
+        logger.debug("类{}的class文件已先于源码变动到达，立即重新加载.", className);
+        BiConsumer<String, File> handler = lateSourceHandler;
+        if (handler != null) {
+            handler.accept(className, entry.classFile);
+        }
+    }
+
+    /**
+     * 记录class文件变动。该类的源码变动已先到达时，消费该记录并返回true，由调用方重新加载
+     *
+     * @param className 顶层类名
+     * @param classFile 该类或其嵌套类的class文件
+     * @return 是否应当重新加载
+     */
+    public boolean classChanged(String className, File classFile) {
+        long now = System.currentTimeMillis();
+        AtomicReference<Entry> matched = new AtomicReference<>();
+        AtomicBoolean compiled = new AtomicBoolean(false);
+
+        entries.compute(className, (name, entry) -> {
+            if (entry != null && entry.kind == Kind.SOURCE && !isExpired(entry, now)) {
+                matched.set(entry);
+                return null;
+            }
+
+            // 只跳过进程内编译之后的第一次class文件变动，即外部构建为同一次修改写出的class文件
+            Long compiledAt = compiledClasses.remove(name);
+            if (compiledAt != null && now - compiledAt <= classTtl) {
+                compiled.set(true);
+                return entry;
+            }
+            return new Entry(Kind.CLASS, now, classFile);
+        });
+
+        if (compiled.get()) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("类{}已在进程内编译，忽略外部构建写出的class文件.", className);
+            }
+            return false;
+        }
+
+        if (matched.get() == null) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("类{}的class文件变动未匹配到源码变动，暂存等待，{}.", className, summary());
+            }
+            trim(now);
+            return false;
+        }
+
+        matchedCount.increment();
+        logger.debug("类{}的源码变动已被处理.", className);
+        return true;
+    }
+
+    /**
+     * 重新加载失败时恢复源码变动记录，待修正后的下一次编译重新处理
+     *
+     * @param className 顶层类名
+     */
+    public void restore(String className) {
+        entries.put(className, new Entry(Kind.SOURCE, System.currentTimeMillis(), null));
+    }
+
+    /**
+     * 清空日志
+     */
+    public void clear() {
+        entries.clear();
+        compiledClasses.clear();
+        if (logger.isDebugEnabled()) {
+            logger.debug("已清空类变动日志.");
+        }
+    }
+
+    /**
+     * 当前尚未匹配的记录，按时间先后排列，用于排查未触发的重新加载
+     *
+     * @return the list
+     */
+    public List<String> snapshot() {
+        long now = System.currentTimeMillis();
+        List<Map.Entry<String, Entry>> pending = new ArrayList<>(entries.entrySet());
+        pending.sort(Comparator.comparingLong(item -> item.getValue().time));
+
+        List<String> result = new ArrayList<>(pending.size());
+        for (Map.Entry<String, Entry> item : pending) {
+            Entry entry = item.getValue();
+            result.add(String.format("%s %s %d ms ago%s%s", entry.kind, item.getKey(), now - entry.time,
+                    entry.classFile == null ? "" : " " + entry.classFile.getName(),
+                    isExpired(entry, now) ? " (expired)" : ""));
+        }
+        return result;
+    }
+
+    /**
+     * 统计信息
+     *
+     * @return the string
+     */
+    public String summary() {
+        return String.format("class change journal pending %d/%d, matched %d, expired %d, evicted %d",
+                entries.size(), maxEntries, matchedCount.sum(), expiredCount.sum(), evictedCount.sum());
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return now - entry.time > (entry.kind == Kind.SOURCE ? sourceTtl : classTtl);
+    }
+
+    /**
+     * 移除过期记录，仍超出上限时淘汰最早的记录。只在新增记录时触发，未超出上限时每个class有效期内至多清理一次
+     */
+    private void trim(long now) {
+        long sweepAt = nextSweep.get();
+        boolean full = entries.size() > maxEntries;
+        if (!full && (now < sweepAt || !nextSweep.compareAndSet(sweepAt, now + Math.max(classTtl, 1000)))) {
+            return;
+        }
+
+        compiledClasses.values().removeIf(compiledAt -> now - compiledAt > classTtl);
+        entries.forEach((name, entry) -> {
+            if (isExpired(entry, now) && entries.remove(name, entry)) {
+                expiredCount.increment();
+                if (entry.kind == Kind.SOURCE) {
+                    logger.info("Source change of {} expired after {} ms without a compiled class file.", name,
+                            now - entry.time);
+                }
+            }
+        });
+
+        int overflow = entries.size() - maxEntries;
+        if (overflow <= 0) {
+            return;
+        }
+
+        entries.entrySet().stream()
+                .sorted(Comparator.comparingLong(item -> item.getValue().time))
+                .limit(overflow)
+                .forEach(item -> {
+                    if (entries.remove(item.getKey(), item.getValue())) {
+                        evictedCount.increment();
+                    }
+                });
+        logger.warn("Class change journal is full, evict {} oldest entries, {}.", overflow, summary());
+    }
+
+    /**
+     * 源码已在进程内编译完成时的处理者
+     */
+    @FunctionalInterface
+    public interface CompiledHandler {
+
+        /**
+         * 重新定义进程内编译出的类
+         *
+         * @param classNames  顶层类名
+         * @param classBytes  编译出的类名到字节码
+         * @param classLoader 这些类所在的应用类加载器
+         */
+        void accept(Set<String> classNames, Map<String, byte[]> classBytes, ClassLoader classLoader);
+    }
+
+    private enum Kind {
+        /**
+         * 源码变动
+         */
+        SOURCE,
+        /**
+         * class文件变动
+         */
+        CLASS
+    }
+
+    private static final class Entry {
+        private final Kind kind;
+        private final long time;
+        private final File classFile;
+
+        private Entry(Kind kind, long time, File classFile) {
+            this.kind = kind;
+            this.time = time;
+            this.classFile = classFile;
+        }
+    }
+}
@@ -24,15 +24,30 @@
 
 package io.liuguangsheng.galois.service.spring.listeners;
 
+import io.liuguangsheng.galois.constants.FileType;
 import io.liuguangsheng.galois.service.annotation.LazyBean;
+import io.liuguangsheng.galois.service.compiler.CompileResult;
+import io.liuguangsheng.galois.service.compiler.InMemoryCompiler;
+import io.liuguangsheng.galois.service.monitor.FileChangedEvent;
 import io.liuguangsheng.galois.service.monitor.FileChangedListener;
 import io.liuguangsheng.galois.service.spring.SpringAgentService;
+import io.liuguangsheng.galois.service.spring.SpringBeanReloader;
 import io.liuguangsheng.galois.utils.ClassUtil;
 import io.liuguangsheng.galois.utils.FileUtil;
+import io.liuguangsheng.galois.utils.GaloisLog;
+import io.liuguangsheng.galois.utils.StringUtil;
+import org.slf4j.Logger;
 
 import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
 
+import static io.liuguangsheng.galois.constants.Constant.COMMA;
 import static io.liuguangsheng.galois.constants.FileType.JAVA_FILE;
 
 /**
@@ -42,7 +57,15 @@ import static io.liuguangsheng.galois.constants.FileType.JAVA_FILE;
 @LazyBean(value = "JavaFileListener", manager = SpringAgentService.class, rank = 1)
 public class JavaFileListener implements FileChangedListener {
 
-    private static final ClassChangedCache classChangedCache = ClassChangedCache.getInstance();
+    private static final Logger logger = new GaloisLog(JavaFileListener.class);
+    private static final ClassChangeJournal changeJournal = ClassChangeJournal.getInstance();
+    private static final InMemoryCompiler compiler = InMemoryCompiler.getInstance();
+    private final SpringBeanReloader springBeanReloader = SpringBeanReloader.getInstance();
+
+    @Override
+    public Set<FileType> getFileTypes() {
+        return Collections.singleton(JAVA_FILE);
+    }
 
     /**
      * is listener useful for this file object
@@ -55,6 +78,69 @@ public class JavaFileListener implements FileChangedListener {
         return Objects.equals(FileUtil.getFileType(file), JAVA_FILE.getFileType());
     }
 
+    /**
+     * 同一批次变动的源码在进程内一起编译，编译结果直接重新定义；编译器不可用、源码属于尚未加载过的新类或编译失败时，
+     * 只记录源码变动，等待外部构建产出的class文件
+     *
+     * @param events events
+     */
+    @Override
+    public void batchHandle(List<FileChangedEvent> events) {
+        Map<String, File> sources = new LinkedHashMap<>(events.size() * 2);
+        for (FileChangedEvent event : events) {
+            if (event.getType() == FileChangedEvent.Type.DELETED) {
+                continue;
+            }
+
+            String className = ClassUtil.getClassNameFromSource(event.getFile());
+            if (!StringUtil.isBlank(className)) {
+                sources.put(className, event.getFile());
+            }
+        }
+
+        if (!sources.isEmpty() && !compileAndRedefine(sources)) {
+            sources.keySet().forEach(changeJournal::sourceChanged);
+        }
+    }
+
+    /**
+     * compile sources in process and redefine the compiled classes
+     *
+     * @param sources 顶层类名到源码文件
+     * @return 编译结果是否已交给重新定义
+     */
+    private boolean compileAndRedefine(Map<String, File> sources) {
+        if (!compiler.isAvailable()) {
+            return false;
+        }
+
+        // 以应用的类加载器作为编译的classpath，并只检查已加载的类，不在这里触发类加载
+        ClassLoader classLoader = springBeanReloader.getClassLoader();
+        for (String className : sources.keySet()) {
+            try {
+                if (ClassUtil.findLoadedClass(classLoader, className) == null) {
+                    logger.debug("Class {} has not been loaded yet, wait for the external build.", className);
+                    return false;
+                }
+            } catch (Throwable e) {
+                logger.debug("Find loaded class {} fail, wait for the external build.", className, e);
+                return false;
+            }
+        }
+
+        CompileResult result = compiler.compile(sources.values(), classLoader);
+        if (!result.isSuccess()) {
+            List<CompileResult.Problem> errors = result.getErrors();
+            logger.warn("Compile {} fail with {} errors in {} ms, wait for the external build:\n{}",
+                    String.join(COMMA, sources.keySet()), errors.size(), result.getCostMillis(),
+                    errors.stream().map(CompileResult.Problem::toString).collect(Collectors.joining("\n")));
+            return false;
+        }
+
+        logger.info("Compile {} sources in process took {} ms.", sources.size(), result.getCostMillis());
+        return changeJournal.sourceCompiled(sources.keySet(), result.getClasses(), classLoader);
+    }
+
     /**
      * handler for file created
      *
@@ -63,7 +149,7 @@ public class JavaFileListener implements FileChangedListener {
     @Override
     public void createdHandle(File file) {
         String className = ClassUtil.getClassNameFromSource(file);
-        classChangedCache.hadChanged(className);
+        changeJournal.sourceChanged(className);
     }
 
     /**
@@ -74,7 +160,7 @@ public class JavaFileListener implements FileChangedListener {
     @Override
     public void modifiedHandle(File file) {
         String className = ClassUtil.getClassNameFromSource(file);
-        classChangedCache.hadChanged(className);
+        changeJournal.sourceChanged(className);
     }
 
     /**
@@ -25,7 +25,9 @@
 package io.liuguangsheng.galois.service.spring.listeners;
 
 import io.liuguangsheng.galois.constants.FileType;
+import io.liuguangsheng.galois.service.ClassDigestRegistry;
 import io.liuguangsheng.galois.service.annotation.LazyBean;
+import io.liuguangsheng.galois.service.monitor.FileChangedEvent;
 import io.liuguangsheng.galois.service.monitor.FileChangedListener;
 import io.liuguangsheng.galois.service.spring.SpringAgentService;
 import io.liuguangsheng.galois.service.spring.SpringBeanReloader;
@@ -33,9 +35,27 @@ import io.liuguangsheng.galois.utils.ClassUtil;
 import io.liuguangsheng.galois.utils.FileUtil;
 import io.liuguangsheng.galois.utils.GaloisLog;
 import org.slf4j.Logger;
+import sun.management.ManagementFactoryHelper;
 
 import java.io.File;
 import java.lang.instrument.ClassDefinition;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static io.liuguangsheng.galois.constants.Constant.COMMA;
+import static io.liuguangsheng.galois.constants.Constant.DOT;
 
 
 /**
@@ -47,45 +67,300 @@ import java.lang.instrument.ClassDefinition;
 public class SpringBeanListener implements FileChangedListener {
 
     private static final Logger logger = new GaloisLog(SpringBeanListener.class);
-    private static final ClassChangedCache classChangedCache = ClassChangedCache.getInstance();
+    private static final ClassChangeJournal changeJournal = ClassChangeJournal.getInstance();
+    private static final ClassDigestRegistry digestRegistry = ClassDigestRegistry.getInstance();
+    private static final String NEST_SEPARATOR = "$";
     private final SpringBeanReloader springBeanReloader = SpringBeanReloader.getInstance();
 
+    /**
+     * Instantiates a new Spring bean listener.
+     */
+    public SpringBeanListener() {
+        // class文件先于源码变动到达时，由源码变动触发重新加载
+        changeJournal.setLateSourceHandler((outerName, classFile) ->
+                redefineNests(Collections.singletonMap(outerName, classFile)));
+        // 进程内编译的结果不经过class文件，直接重新定义
+        changeJournal.setCompiledHandler(this::redefineClasses);
+    }
+
+    @Override
+    public Set<FileType> getFileTypes() {
+        return Collections.singleton(FileType.CLASS_FILE);
+    }
+
     @Override
     public boolean isSuitable(File file) {
         return FileUtil.matchFileType(file, FileType.CLASS_FILE);
     }
 
     /**
-     * file changed handle
+     * 同一批次中变动的class文件合并为一次redefineClasses调用，只进入一次安全点，且要么全部生效，要么全部不生效。
+     * 重新定义成功后，按类之间的依赖顺序更新Spring bean，被依赖的类先更新
+     *
+     * @param events events
+     */
+    @Override
+    public void batchHandle(List<FileChangedEvent> events) {
+        List<File> classFiles = new ArrayList<>(events.size());
+        for (FileChangedEvent event : events) {
+            if (event.getType() != FileChangedEvent.Type.DELETED) {
+                classFiles.add(event.getFile());
+            }
+        }
+
+        redefine(classFiles);
+    }
+
+    /**
+     * redefine class files
+     *
+     * @param classFiles classFiles
+     */
+    private void redefine(List<File> classFiles) {
+        Map<String, File> nests = new LinkedHashMap<>();
+        for (Map.Entry<String, File> nest : groupByNest(classFiles).entrySet()) {
+            // 结合class变动与java变动，两者都出现时更新该class，先到达的一方记录在日志中等待另一方。
+            // 源码变动只记录顶层类，嵌套类与匿名类随顶层类一起处理
+            if (changeJournal.classChanged(nest.getKey(), nest.getValue())) {
+                nests.put(nest.getKey(), nest.getValue());
+            }
+        }
+
+        if (!nests.isEmpty()) {
+            redefineNests(nests);
+        }
+    }
+
+    /**
+     * 重新定义已确认源码变动的顶层类及其嵌套类
+     *
+     * @param nests 顶层类名到其任一class文件
+     */
+    private void redefineNests(Map<String, File> nests) {
+        Map<String, byte[]> classBytes = new LinkedHashMap<>(nests.size() * 4);
+        for (Map.Entry<String, File> nest : nests.entrySet()) {
+            for (File classFile : nestMembers(nest.getKey(), nest.getValue())) {
+                try {
+                    classBytes.put(ClassUtil.getClassNameFromClass(classFile), FileUtil.readFile(classFile));
+                } catch (Throwable e) {
+                    logger.error("Read class file {} fail.", classFile.getName(), e);
+                }
+            }
+        }
+
+        redefineClasses(nests.keySet(), classBytes, springBeanReloader.getClassLoader());
+    }
+
+    /**
+     * 以一次redefineClasses调用重新定义一组顶层类及其嵌套类，字节码来自class文件或进程内编译的结果。
+     * 尚未加载过的嵌套类与匿名类（如新增的lambda所在的匿名类）在重新定义成功后才定义到顶层类的类加载器中
      *
-     * @param classFile classFile
+     * @param outerNames  顶层类名
+     * @param classBytes  类名到字节码
+     * @param classLoader 应用的类加载器，只用于查找顶层类，不触发类的初始化
      */
-    private void fileChangedHandle(File classFile) {
+    private synchronized void redefineClasses(Set<String> outerNames, Map<String, byte[]> classBytes,
+                                              ClassLoader classLoader) {
+        Map<Class<?>, String> changed = new LinkedHashMap<>(classBytes.size() * 2);
+        Map<String, String> digests = new HashMap<>(classBytes.size() * 2);
+        List<ClassDefinition> definitions = new ArrayList<>(classBytes.size());
+        Map<String, ClassLoader> newClasses = new LinkedHashMap<>(4);
+        int unchanged = 0;
+
+        for (Map.Entry<String, byte[]> member : classBytes.entrySet()) {
+            String className = member.getKey();
+            try {
+                int index = className.indexOf(NEST_SEPARATOR);
+                Class<?> outer = Class.forName(index < 0 ? className : className.substring(0, index), false,
+                        classLoader);
+                Class<?> clazz = outer;
+                if (index >= 0) {
+                    try {
+                        clazz = Class.forName(className, false, outer.getClassLoader());
+                    } catch (ClassNotFoundException e) {
+                        newClasses.put(className, outer.getClassLoader());
+                        continue;
+                    }
+                }
+
+                // 编译器重写了内容相同的class文件时，不重新定义，也不重建bean
+                String digest = digestRegistry.digestOf(member.getValue());
+                if (digestRegistry.isUnchanged(className, digest)) {
+                    unchanged++;
+                    continue;
+                }
+
+                definitions.add(new ClassDefinition(clazz, member.getValue()));
+                digests.put(className, digest);
+                changed.put(clazz, className);
+            } catch (Throwable e) {
+                logger.error("Prepare class {} for redefinition fail.", className, e);
+            }
+        }
+
+        if (definitions.isEmpty()) {
+            int defined = defineNewClasses(newClasses, classBytes);
+            if (unchanged > 0 || defined > 0) {
+                logger.info("Skip {} classes with unchanged bytecode, define {} new nested classes.", unchanged,
+                        defined);
+            }
+            return;
+        }
 
+        long safepointBegin = totalSafepointMillis();
+        long begin = System.nanoTime();
         try {
-            // 结合class变动与java变动，当两者同时出现时，更新该class
-            String className = ClassUtil.getClassNameFromClass(classFile);
-            if (!classChangedCache.handleIfExisted(className)) {
-                if (logger.isDebugEnabled()) {
-                    logger.debug("当前类{}处理失败，并未记录在缓存中", className);
+            ClassUtil.getInstrumentation().redefineClasses(definitions.toArray(new ClassDefinition[0]));
+        } catch (Throwable e) {
+            // 批次整体失败时没有类被修改，新的嵌套类也不定义，恢复变动记录，待修正后的下一次编译重新处理
+            outerNames.forEach(changeJournal::restore);
+            logger.error("Redefine {} classes fail, none of them has been changed.", changed.size(), e);
+            return;
+        }
+        long cost = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+        long safepointEnd = totalSafepointMillis();
+        digests.forEach(digestRegistry::update);
+        int defined = defineNewClasses(newClasses, classBytes);
+
+        for (Class<?> clazz : orderByDependency(changed.keySet())) {
+            try {
+                if (springBeanReloader.isSuitable(clazz)) {
+                    springBeanReloader.updateBean(clazz);
                 }
-                return;
-            } else {
-                logger.debug("当前类{}处理成功，已将其移除缓存", className);
+            } catch (Throwable e) {
+                logger.error("Reload Spring Bean {} fail.", clazz.getName(), e);
+            }
+        }
+
+        logger.info("Redefine {} classes in one batch, skip {} unchanged, define {} new, took {} ms, safepoint time " +
+                        "{} ms: {}.", changed.size(), unchanged, defined, cost,
+                safepointBegin < 0 || safepointEnd < 0 ? "-" : safepointEnd - safepointBegin,
+                String.join(COMMA, changed.values()));
+    }
+
+    /**
+     * 定义尚未加载过的嵌套类与匿名类，并记录其字节码摘要
+     *
+     * @param newClasses 类名到顶层类的类加载器
+     * @param classBytes 类名到字节码
+     * @return 成功定义的类数量
+     */
+    private static int defineNewClasses(Map<String, ClassLoader> newClasses, Map<String, byte[]> classBytes) {
+        int defined = 0;
+        for (Map.Entry<String, ClassLoader> newClass : newClasses.entrySet()) {
+            byte[] bytes = classBytes.get(newClass.getKey());
+            try {
+                ClassUtil.defineClass(newClass.getValue(), newClass.getKey(), bytes);
+                digestRegistry.update(newClass.getKey(), digestRegistry.digestOf(bytes));
+                defined++;
+            } catch (Throwable e) {
+                logger.error("Define new class {} fail.", newClass.getKey(), e);
             }
+        }
+        return defined;
+    }
+
+    /**
+     * 按顶层类名对class文件分组，Outer$Inner、Outer$1等嵌套类与匿名类归入Outer
+     *
+     * @param classFiles classFiles
+     * @return 顶层类名到批次中任一class文件
+     */
+    private static Map<String, File> groupByNest(List<File> classFiles) {
+        Map<String, File> nests = new LinkedHashMap<>(classFiles.size() * 2);
+        for (File classFile : classFiles) {
+            try {
+                String className = ClassUtil.getClassNameFromClass(classFile);
+                int index = className.indexOf(NEST_SEPARATOR);
+                nests.putIfAbsent(index < 0 ? className : className.substring(0, index), classFile);
+            } catch (Throwable e) {
+                logger.error("Read class file {} fail.", classFile.getName(), e);
+            }
+        }
+        return nests;
+    }
+
+    /**
+     * 顶层类及其全部嵌套类的class文件，顶层类排在第一个。同一次编译会重新生成整个源文件的全部class文件，
+     * 即使部分文件的变动事件尚未到达，也一起重新定义
+     *
+     * @param outerName 顶层类名
+     * @param anyMember 批次中属于该组的任一class文件
+     * @return class files
+     */
+    private static List<File> nestMembers(String outerName, File anyMember) {
+        String simpleName = outerName.substring(outerName.lastIndexOf(DOT) + 1);
+        File directory = anyMember.getParentFile();
+        List<File> members = new ArrayList<>(4);
+        members.add(new File(directory, simpleName + FileType.CLASS_FILE.getFileType()));
 
-            byte[] classBytes = FileUtil.readFile(classFile);
-            Class<?> clazz = Class.forName(className);
-            ClassDefinition definition = new ClassDefinition(clazz, classBytes);
-            ClassUtil.getInstrumentation().redefineClasses(definition);
+        File[] nested = directory.listFiles((dir, name) -> name.startsWith(simpleName + NEST_SEPARATOR)
+                && name.endsWith(FileType.CLASS_FILE.getFileType()));
+        if (nested != null) {
+            Arrays.sort(nested);
+            members.addAll(Arrays.asList(nested));
+        }
+
+        members.removeIf(file -> !file.isFile());
+        return members;
+    }
 
-            if (springBeanReloader.isSuitable(clazz)) {
-                springBeanReloader.updateBean(clazz);
+    /**
+     * 按依赖顺序排列同一批次的类：字段、构造参数、父类或接口引用了批次中另一个类时，被引用的类排在前面，
+     * 循环依赖的类保持原有顺序
+     *
+     * @param classes classes
+     * @return ordered classes
+     */
+    private static List<Class<?>> orderByDependency(Collection<Class<?>> classes) {
+        Map<Class<?>, Set<Class<?>>> dependencies = new LinkedHashMap<>(classes.size() * 2);
+        for (Class<?> clazz : classes) {
+            Set<Class<?>> deps = new LinkedHashSet<>();
+            try {
+                deps.add(clazz.getSuperclass());
+                deps.addAll(Arrays.asList(clazz.getInterfaces()));
+                for (Field field : clazz.getDeclaredFields()) {
+                    deps.add(field.getType());
+                }
+                for (Constructor<?> constructor : clazz.getDeclaredConstructors()) {
+                    deps.addAll(Arrays.asList(constructor.getParameterTypes()));
+                }
+            } catch (Throwable e) {
+                // 依赖的类型无法加载时只影响排序
+                logger.debug("Resolve dependencies of {} fail.", clazz.getName(), e);
             }
 
-            logger.info("Redefine class file {} success.", classFile.getName());
+            deps.retainAll(classes);
+            deps.remove(clazz);
+            dependencies.put(clazz, deps);
+        }
+
+        List<Class<?>> ordered = new ArrayList<>(classes.size());
+        while (!dependencies.isEmpty()) {
+            Class<?> next = dependencies.entrySet().stream()
+                    .filter(entry -> entry.getValue().isEmpty())
+                    .map(Map.Entry::getKey)
+                    .findFirst()
+                    .orElse(dependencies.keySet().iterator().next());
+
+            dependencies.remove(next);
+            dependencies.values().forEach(deps -> deps.remove(next));
+            ordered.add(next);
+        }
+
+        return ordered;
+    }
+
+    /**
+     * HotSpot累计的安全点停顿时间，无法获取时返回-1
+     *
+     * @return total safepoint time in ms
+     */
+    private static long totalSafepointMillis() {
+        try {
+            return ManagementFactoryHelper.getHotspotRuntimeMBean().getTotalSafepointTime();
         } catch (Throwable e) {
-            logger.error("Reload Spring Bean fail.", e);
+            return -1;
         }
     }
 
@@ -95,7 +370,7 @@ public class SpringBeanListener implements FileChangedListener {
             logger.debug("SpringBeanListener detect class file created: {}", file.getName());
         }
 
-        fileChangedHandle(file);
+        redefine(Collections.singletonList(file));
     }
 
     /**
@@ -109,7 +384,7 @@ public class SpringBeanListener implements FileChangedListener {
             logger.debug("SpringBeanListener detect class file modified: {}", file.getName());
         }
 
-        fileChangedHandle(file);
+        redefine(Collections.singletonList(file));
     }
 
     @Override
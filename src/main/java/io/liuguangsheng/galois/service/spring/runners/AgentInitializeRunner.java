@@ -26,20 +26,24 @@ package io.liuguangsheng.galois.service.spring.runners;
 
 import io.liuguangsheng.galois.service.AgentService;
 import io.liuguangsheng.galois.service.BeanReloader;
+import io.liuguangsheng.galois.service.PremainService;
 import io.liuguangsheng.galois.service.annotation.LazyBean;
-import io.liuguangsheng.galois.service.monitor.ApacheFileWatchService;
 import io.liuguangsheng.galois.service.monitor.FileChangedListener;
 import io.liuguangsheng.galois.service.monitor.FileWatchService;
 import io.liuguangsheng.galois.utils.ClassUtil;
 import io.liuguangsheng.galois.utils.GaloisLog;
+import io.liuguangsheng.galois.utils.ServiceIndex;
 import org.slf4j.Logger;
 import org.springframework.context.ConfigurableApplicationContext;
 
 import java.lang.reflect.Modifier;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 import static io.liuguangsheng.galois.constants.ClassNameConstant.PACKAGE_SERVICE;
+import static io.liuguangsheng.galois.utils.ServiceIndex.Category.AGENT_SERVICE;
+import static io.liuguangsheng.galois.utils.ServiceIndex.Category.LAZY_BEAN;
 
 /**
  * agent service init runner
@@ -49,7 +53,9 @@ import static io.liuguangsheng.galois.constants.ClassNameConstant.PACKAGE_SERVIC
 public class AgentInitializeRunner extends AbstractRunner {
 
     private static final Logger logger = new GaloisLog(AgentInitializeRunner.class);
-    private static final FileWatchService watchService = ApacheFileWatchService.getInstance();
+    private static final FileWatchService watchService = FileWatchService.getConfiguredInstance();
+    private static final ServiceIndex serviceIndex = ServiceIndex.getInstance();
+    private static final AtomicBoolean initialized = new AtomicBoolean(false);
 
     @Override
     public void started(ConfigurableApplicationContext context) {
@@ -58,15 +64,28 @@ public class AgentInitializeRunner extends AbstractRunner {
         }
 
         logger.info("{} Started with context {}.", getClass().getSimpleName(), context.getId());
+        initialize();
+    }
+
+    /**
+     * 为已就绪的agentService装配beanReloader与文件监听器，并启动文件监听服务。premain模式下由SpringBoot启动完成时触发，
+     * attach模式下在捕获到已有对象后直接调用，只会执行一次
+     */
+    public void initialize() {
+        if (!initialized.compareAndSet(false, true)) {
+            return;
+        }
 
         try {
-            Set<Class<?>> lazyBeanFactorys = ClassUtil.scanAnnotationClass(PACKAGE_SERVICE, LazyBean.class);
-            Set<AgentService> agentServices = ClassUtil.scanBaseClass(PACKAGE_SERVICE, AgentService.class)
+            Set<Class<?>> lazyBeanFactorys = serviceIndex.getClasses(LAZY_BEAN,
+                    () -> ClassUtil.scanAnnotationClass(PACKAGE_SERVICE, LazyBean.class));
+            Set<AgentService> agentServices = serviceIndex.getClasses(AGENT_SERVICE,
+                            () -> ClassUtil.scanBaseClass(PACKAGE_SERVICE, AgentService.class))
                     .stream()
                     .filter(clazz -> !Modifier.isAbstract(clazz.getModifiers()))
                     .map(clazz -> (AgentService) ClassUtil.getInstance(clazz))
                     .filter(Objects::nonNull)
-                    .filter(AgentService::isSuitable)
+                    .filter(this::isReady)
                     .collect(Collectors.toSet());
 
             Map<String, Map.Entry<FileChangedListener, Integer>> tmpRankMap = new HashMap<>(64);
@@ -104,6 +123,25 @@ public class AgentInitializeRunner extends AbstractRunner {
             watchService.start();
         } catch (Exception e) {
             logger.error("Invoke agentInitializeRunner failed.", e);
+        } finally {
+            PremainService.completeTransform();
+        }
+    }
+
+    /**
+     * agentService是否已就绪，未就绪时输出尚未加载的必备类
+     *
+     * @param agentService agentService
+     * @return is ready
+     */
+    private boolean isReady(AgentService agentService) {
+        if (agentService.isSuitable()) {
+            return true;
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("{} is not ready, missing classes {}.", agentService, agentService.getMissingClasses());
         }
+        return false;
     }
 }
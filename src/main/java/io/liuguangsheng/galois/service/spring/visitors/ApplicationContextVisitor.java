@@ -66,6 +66,12 @@ public class ApplicationContextVisitor extends MethodAdapter {
         return mv;
     }
 
+    @Override
+    protected boolean keepFrames() {
+        // 只在return与throw之前插入不含跳转的代码，原有栈帧依然有效
+        return true;
+    }
+
     public interface NecessaryMethods {
 
         void setContext(AnnotationConfigServletWebServerApplicationContext context);
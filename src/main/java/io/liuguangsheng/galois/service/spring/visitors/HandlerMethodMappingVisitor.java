@@ -53,6 +53,18 @@ public class HandlerMethodMappingVisitor extends MethodAdapter {
         super(CLASS_ABSTRACT_HANDLER_METHOD_MAPPING);
     }
 
+    @Override
+    protected boolean keepFrames() {
+        // 只追加不含跳转的新方法，且已显式给出maxs，原有栈帧依然有效
+        return true;
+    }
+
+    @Override
+    public boolean isRetransformable() {
+        // 新增了方法，attach模式下由SpringBeanReloader通过反射完成同样的工作
+        return false;
+    }
+
     @Override
     public void visitEnd() {
         {
@@ -25,7 +25,6 @@
 
 package io.liuguangsheng.galois.utils;
 
-import io.liuguangsheng.galois.constants.FileType;
 import jdk.internal.org.objectweb.asm.ClassReader;
 import org.slf4j.Logger;
 import org.springframework.core.io.Resource;
@@ -72,7 +71,6 @@ public class ClassUtil {
      * The constant logger.
      */
     public static final Logger logger = new GaloisLog(ClassUtil.class);
-    private static final String compileDir;
     private static final Pattern packagePattern = Pattern.compile("^package +(\\S+);");
     private static final Pattern classNamePattern = Pattern.compile("class +([\\S&&[^<]]+)");
 
@@ -81,20 +79,6 @@ public class ClassUtil {
      */
     public static Instrumentation instrumentation;
 
-    static {
-        compileDir = System.getProperty("java.io.tmpdir") + File.separator + "GaloisCompile" + File.separator;
-        File directory = new File(compileDir);
-        if (!directory.exists()) {
-            try {
-                boolean mkdirFlag = directory.mkdir();
-                if (!mkdirFlag) {
-                    logger.warn("Create temp compile directory fail.");
-                }
-            } catch (Exception ignored) {
-            }
-        }
-    }
-
     /**
      * Get instance object.
      *
@@ -277,105 +261,42 @@ public class ClassUtil {
 
 
     /**
-     * Gets class file.
+     * 在指定的类加载器及其父加载器中查找已经加载过的类，不会触发类加载
      *
-     * @param clazz must include package path
-     * @return class file
+     * @param classLoader the class loader
+     * @param className   the class name
+     * @return 尚未加载时返回null
+     * @throws ReflectiveOperationException the reflective operation exception
      */
-    public static File getClassFile(Class<?> clazz) {
-        return getClassFile(clazz.getName());
-    }
-
-    /**
-     * Gets class file.
-     *
-     * @param className must include package path
-     * @return class file
-     */
-    public static File getClassFile(String className) {
-        if (StringUtil.isBlank(className)) {
-            return null;
+    public static Class<?> findLoadedClass(ClassLoader classLoader, String className)
+            throws ReflectiveOperationException {
+        Method findLoadedClass = ClassLoader.class.getDeclaredMethod("findLoadedClass", String.class);
+        findLoadedClass.setAccessible(true);
+
+        for (ClassLoader loader = classLoader; loader != null; loader = loader.getParent()) {
+            Class<?> clazz = (Class<?>) findLoadedClass.invoke(loader, className);
+            if (clazz != null) {
+                return clazz;
+            }
         }
-
-        return new File(compileDir + String.join(File.separator, className.split("\\.")) + FileType.CLASS_FILE.getFileType());
+        return null;
     }
 
     /**
-     * compile java source code file to byte[] data
+     * 在指定的类加载器中定义一个新类，用于进程内编译出的、此前从未加载过的嵌套类与匿名类
      *
-     * @param sourceFile
-     * @return
+     * @param classLoader the class loader
+     * @param className   the class name
+     * @param classBytes  the class bytes
+     * @return the class
+     * @throws ReflectiveOperationException the reflective operation exception
      */
-//    public static byte[] compileSource(File sourceFile) {
-//        MemoryJavaFileManager manager = new MemoryJavaFileManager(standardJavaFileManager);
-//        String sourceCode = FileUtil.readTextFile(sourceFile);
-//        JavaFileObject javaFileObject = manager.makeStringSource(sourceFile.getName(), sourceCode);
-//        List<JavaFileObject> fileObjectList = Collections.singletonList(javaFileObject);
-//        DiagnosticCollector diagnosticCollector = null;
-//        JavaCompiler.CompilationTask task = compiler.getTask(null, manager, diagnosticCollector, null, null,
-//                fileObjectList);
-//        Boolean result = task.call();
-//
-//        return manager.getClassBytes();
-//    }
-
-//    private static class MemoryJavaFileManager extends ForwardingJavaFileManager<JavaFileManager> {
-//        byte[] classBytes = new byte[0];
-//
-//        protected MemoryJavaFileManager(JavaFileManager fileManager) {
-//            super(fileManager);
-//        }
-//
-//        public byte[] getClassBytes() {
-//            return classBytes;
-//        }
-//
-//        @Override
-//        public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind,
-//                                                   FileObject sibling) throws IOException {
-//            if (kind == JavaFileObject.Kind.CLASS) {
-//                return new MemoryOutputJavaFileObject(className);
-//            } else {
-//                return super.getJavaFileForOutput(location, className, kind, sibling);
-//            }
-//        }
-//
-//        JavaFileObject makeStringSource(String name, String code) {
-//            return new MemoryInputJavaFileObject(name, code);
-//        }
-//
-//        static class MemoryInputJavaFileObject extends SimpleJavaFileObject {
-//            final String code;
-//
-//            protected MemoryInputJavaFileObject(String name, String code) {
-//                super(URI.create("string:///" + name), Kind.SOURCE);
-//                this.code = code;
-//            }
-//
-//            @Override
-//            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
-//                return CharBuffer.wrap(code);
-//            }
-//        }
-//
-//        class MemoryOutputJavaFileObject extends SimpleJavaFileObject {
-//
-//            protected MemoryOutputJavaFileObject(String name) {
-//                super(URI.create("string:///" + name), Kind.CLASS);
-//            }
-//
-//            @Override
-//            public OutputStream openOutputStream() {
-//                return new FilterOutputStream(new ByteArrayOutputStream()) {
-//                    @Override
-//                    public void close() throws IOException {
-//                        out.close();
-//                        ByteArrayOutputStream bos = (ByteArrayOutputStream) out;
-//                        classBytes = bos.toByteArray();
-//                    }
-//                };
-//            }
-//        }
-//}
+    public static Class<?> defineClass(ClassLoader classLoader, String className, byte[] classBytes)
+            throws ReflectiveOperationException {
+        Method defineClass = ClassLoader.class.getDeclaredMethod("defineClass", String.class, byte[].class,
+                int.class, int.class);
+        defineClass.setAccessible(true);
+        return (Class<?>) defineClass.invoke(classLoader, className, classBytes, 0, classBytes.length);
+    }
 
 }
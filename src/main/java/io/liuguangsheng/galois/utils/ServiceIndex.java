@@ -0,0 +1,165 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) [2023] [liuguangsheng]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.liuguangsheng.galois.utils;
+
+import io.liuguangsheng.galois.processor.ServiceIndexProcessor;
+import org.slf4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Supplier;
+
+import static io.liuguangsheng.galois.constants.Constant.POUND;
+
+/**
+ * 读取编译期由{@link ServiceIndexProcessor}生成的服务索引，索引不存在（如未经过maven构建）时回退为classpath扫描
+ *
+ * @author liuguangsheng
+ * @since 2.0.1
+ */
+public class ServiceIndex {
+
+    private static final Logger logger = new GaloisLog(ServiceIndex.class);
+    private static final String SEPARATOR = "=";
+    private final Map<String, Set<String>> index;
+
+    private static class ServiceIndexHolder {
+        private static final ServiceIndex instance = new ServiceIndex();
+    }
+
+    private ServiceIndex() {
+        index = loadIndex();
+    }
+
+    /**
+     * Gets instance.
+     *
+     * @return the instance
+     */
+    public static ServiceIndex getInstance() {
+        return ServiceIndexHolder.instance;
+    }
+
+    /**
+     * get classes of category from index, or from fallback when there is no index
+     *
+     * @param category the category
+     * @param fallback the fallback, usually a classpath scan
+     * @return the classes
+     */
+    public Set<Class<?>> getClasses(Category category, Supplier<Set<Class<?>>> fallback) {
+        if (index == null) {
+            return fallback.get();
+        }
+
+        Set<Class<?>> result = new LinkedHashSet<>(16);
+        for (String className : index.getOrDefault(category.getKey(), Collections.emptySet())) {
+            try {
+                result.add(Class.forName(className));
+            } catch (ClassNotFoundException | LinkageError e) {
+                logger.warn("Load indexed class {} fail.", className, e);
+            }
+        }
+
+        return result;
+    }
+
+    private static Map<String, Set<String>> loadIndex() {
+        ClassLoader loader = ServiceIndex.class.getClassLoader();
+        Map<String, Set<String>> result = new HashMap<>(8);
+
+        try {
+            Enumeration<URL> urls = loader.getResources(ServiceIndexProcessor.INDEX_RESOURCE);
+            if (!urls.hasMoreElements()) {
+                logger.debug("No service index found, fallback to classpath scanning.");
+                return null;
+            }
+
+            while (urls.hasMoreElements()) {
+                URL url = urls.nextElement();
+                try (BufferedReader br = new BufferedReader(new InputStreamReader(url.openStream(),
+                        StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = br.readLine()) != null) {
+                        line = line.trim();
+                        int index = line.indexOf(SEPARATOR);
+                        if (line.isEmpty() || line.startsWith(POUND) || index <= 0) {
+                            continue;
+                        }
+
+                        result.computeIfAbsent(line.substring(0, index), key -> new LinkedHashSet<>())
+                                .add(line.substring(index + 1));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Read service index fail, fallback to classpath scanning.", e);
+            return null;
+        }
+
+        return result;
+    }
+
+    /**
+     * 索引类别，取值为{@link ServiceIndexProcessor}中写入的类别
+     */
+    public enum Category {
+        /**
+         * Agent service category.
+         */
+        AGENT_SERVICE(ServiceIndexProcessor.CATEGORY_AGENT_SERVICE),
+        /**
+         * Asm visitor category.
+         */
+        ASM_VISITOR(ServiceIndexProcessor.CATEGORY_ASM_VISITOR),
+        /**
+         * Lazy bean category.
+         */
+        LAZY_BEAN(ServiceIndexProcessor.CATEGORY_LAZY_BEAN),
+        /**
+         * Runner category.
+         */
+        RUNNER(ServiceIndexProcessor.CATEGORY_RUNNER);
+
+        private final String key;
+
+        Category(String key) {
+            this.key = key;
+        }
+
+        /**
+         * Gets key.
+         *
+         * @return the key
+         */
+        public String getKey() {
+            return key;
+        }
+    }
+}